@@ -0,0 +1,112 @@
+package org.xbib.elasticsearch.index.analysis;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.Index;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A budget of work per token stream for expensive token filters, configured by the filter setting
+ * <code>budget</code>. What counts as work is up to the filter, e.g. tokens looked up or phrases built.
+ * <p/>
+ * A token stream spends its budget through a {@link Meter}. When a stream exceeds the budget, the filter
+ * passes the rest of the stream through, the exceeded streams are counted and a warning is logged.
+ * The budget is shared by all streams of a filter, a meter belongs to a single stream.
+ */
+public class TokenBudget {
+
+    private static final ESLogger logger = Loggers.getLogger(TokenBudget.class);
+
+    private final String index;
+
+    private final String filter;
+
+    private final long limit;
+
+    private final AtomicLong exceeded = new AtomicLong();
+
+    /**
+     * @param index  the name of the index, for warnings
+     * @param filter the name of the filter, for warnings
+     * @param limit  the work a stream may spend
+     */
+    public TokenBudget(String index, String filter, long limit) {
+        this.index = index;
+        this.filter = filter;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the budget configured by the setting <code>budget</code>, or null if there is no budget
+     */
+    public static TokenBudget create(Index index, String name, Settings settings) {
+        long limit = settings.getAsLong("budget", 0L);
+        return limit > 0L ? new TokenBudget(index.name(), name, limit) : null;
+    }
+
+    /**
+     * @return the work a stream may spend
+     */
+    public long limit() {
+        return limit;
+    }
+
+    /**
+     * @return the number of streams which exceeded the budget
+     */
+    public long exceeded() {
+        return exceeded.get();
+    }
+
+    /**
+     * @return a meter for a new stream
+     */
+    public Meter meter() {
+        return new Meter();
+    }
+
+    private void exceed() {
+        exceeded.incrementAndGet();
+        logger.warn("[{}] token filter [{}] exceeded its budget of {} in a token stream, passing the rest through",
+                index, filter, limit);
+    }
+
+    /**
+     * The work spent by a token stream, reset with the stream.
+     */
+    public class Meter {
+
+        private long spent;
+
+        private boolean exhausted;
+
+        private Meter() {
+        }
+
+        /**
+         * Spend work, unless the budget is exhausted.
+         *
+         * @param work the work
+         * @return true if the work is within the budget, false if the stream should be passed through
+         */
+        public boolean spend(long work) {
+            if (exhausted) {
+                return false;
+            }
+            spent += work;
+            if (spent > limit) {
+                exhausted = true;
+                exceed();
+                return false;
+            }
+            return true;
+        }
+
+        public void reset() {
+            spent = 0L;
+            exhausted = false;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.xbib.elasticsearch.index.analysis;
+
+import org.apache.lucene.util.AttributeImpl;
+import org.apache.lucene.util.AttributeSource;
+
+import java.util.Iterator;
+
+/**
+ * A copy of the attributes of the current token of a stream, for filters emitting further tokens
+ * at the position of an input token. The copy is cloned from the attributes of the stream once,
+ * and copied into in place for every token, so it does not allocate per token like a captured state.
+ */
+public final class TokenCopy {
+
+    private AttributeSource copy;
+
+    private int attributes;
+
+    /**
+     * Prepare the copy for a stream which is reset. The copy is cloned again if attributes
+     * have been added to the stream since the last reset.
+     *
+     * @param stream the stream
+     */
+    public void reset(AttributeSource stream) {
+        int count = 0;
+        for (Iterator<AttributeImpl> it = stream.getAttributeImplsIterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        if (copy == null || count != attributes) {
+            copy = stream.cloneAttributes();
+            attributes = count;
+        }
+    }
+
+    /**
+     * Copy the attributes of the current token of a stream.
+     */
+    public void save(AttributeSource stream) {
+        stream.copyTo(copy);
+    }
+
+    /**
+     * Copy the saved attributes back into a stream.
+     */
+    public void restore(AttributeSource stream) {
+        copy.copyTo(stream);
+    }
+}
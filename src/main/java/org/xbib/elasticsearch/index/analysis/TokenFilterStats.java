@@ -0,0 +1,165 @@
+package org.xbib.elasticsearch.index.analysis;
+
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Counters of a named token filter of an index: tokens in and out, hits, i.e. tokens split or
+ * reduced to a base form, the time spent on the tokens and a histogram of the time per token,
+ * and the number of streams exceeding the {@link TokenBudget} of the filter.
+ * <p/>
+ * Counters are striped, so filters of many indexing threads update them without contention.
+ * The histogram has a bucket per power of two nanoseconds.
+ */
+public class TokenFilterStats implements ToXContent {
+
+    private static final int BUCKETS = 32;
+
+    private final String index;
+
+    private final String filter;
+
+    private final String type;
+
+    private final Resources resources;
+
+    private final TokenBudget budget;
+
+    private final CounterMetric tokensIn = new CounterMetric();
+
+    private final CounterMetric tokensOut = new CounterMetric();
+
+    private final CounterMetric hits = new CounterMetric();
+
+    private final CounterMetric nanos = new CounterMetric();
+
+    private final CounterMetric[] histogram = new CounterMetric[BUCKETS];
+
+    /**
+     * @param index     the name of the index
+     * @param filter    the name of the filter
+     * @param type      the type of the filter
+     * @param resources the resources of the filter, or null
+     */
+    public TokenFilterStats(String index, String filter, String type, Resources resources) {
+        this(index, filter, type, resources, null);
+    }
+
+    /**
+     * @param index     the name of the index
+     * @param filter    the name of the filter
+     * @param type      the type of the filter
+     * @param resources the resources of the filter, or null
+     * @param budget    the budget of the filter, whose exceeded streams are reported, or null
+     */
+    public TokenFilterStats(String index, String filter, String type, Resources resources, TokenBudget budget) {
+        this.index = index;
+        this.filter = filter;
+        this.type = type;
+        this.resources = resources;
+        this.budget = budget;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new CounterMetric();
+        }
+    }
+
+    public String index() {
+        return index;
+    }
+
+    public String filter() {
+        return filter;
+    }
+
+    /**
+     * Count a token.
+     *
+     * @param nanos the time spent on the token
+     * @param hit   true if the token was split or reduced
+     * @param out   the number of tokens emitted for the token
+     */
+    public void token(long nanos, boolean hit, int out) {
+        tokensIn.inc();
+        tokensOut.inc(out);
+        if (hit) {
+            hits.inc();
+        }
+        this.nanos.inc(nanos);
+        histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(0L, nanos)))].inc();
+    }
+
+    public long tokensIn() {
+        return tokensIn.count();
+    }
+
+    public long tokensOut() {
+        return tokensOut.count();
+    }
+
+    public long hits() {
+        return hits.count();
+    }
+
+    public long nanos() {
+        return nanos.count();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        long in = tokensIn.count();
+        builder.startObject(filter);
+        builder.field("type", type);
+        builder.field("tokens_in", in);
+        if (budget != null) {
+            builder.field("budget_exceeded", budget.exceeded());
+        }
+        builder.field("tokens_out", tokensOut.count());
+        builder.field("hits", hits.count());
+        builder.field("hit_rate", in > 0L ? (double) hits.count() / in : 0.0);
+        builder.field("time_in_nanos", nanos.count());
+        // the upper bounds of the buckets in nanoseconds, empty buckets are left out
+        builder.startObject("histogram_nanos");
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = histogram[i].count();
+            if (count > 0L) {
+                builder.field(Long.toString(1L << i), count);
+            }
+        }
+        builder.endObject();
+        if (resources != null) {
+            builder.field("resource_size_in_bytes", resources.sizeInBytes());
+            resources.toXContent(builder, params);
+            CacheStats cacheStats = resources.cacheStats();
+            if (cacheStats != null) {
+                builder.startObject("cache");
+                builder.field("hits", cacheStats.hitCount());
+                builder.field("misses", cacheStats.missCount());
+                builder.field("evictions", cacheStats.evictionCount());
+                builder.endObject();
+            }
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    /**
+     * The resources of a filter, which may change by reloads. {@link #toXContent} adds fields of the
+     * resources to the object of the filter, e.g. the generation of reloadable resources.
+     */
+    public interface Resources extends ToXContent {
+
+        /**
+         * @return the size of the resources in bytes, on the heap or memory-mapped
+         */
+        long sizeInBytes();
+
+        /**
+         * @return the statistics of the result cache, or null if there is no cache
+         */
+        CacheStats cacheStats();
+    }
+}
@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.index.analysis;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.CloseableIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.indices.analysis.stats.TokenFilterStatsService;
+
+/**
+ * Drops the token filter stats of an index when the index is closed.
+ */
+public class TokenFilterStatsIndexComponent extends AbstractIndexComponent implements CloseableIndexComponent {
+
+    private final TokenFilterStatsService statsService;
+
+    @Inject
+    public TokenFilterStatsIndexComponent(Index index, @IndexSettings Settings indexSettings,
+                                          TokenFilterStatsService statsService) {
+        super(index, indexSettings);
+        this.statsService = statsService;
+    }
+
+    @Override
+    public void close() throws ElasticsearchException {
+        statsService.release(index);
+    }
+}
@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.CloseableIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.indices.analysis.baseform.BaseformDictionaryService;
+
+/**
+ * Releases the baseform dictionaries of an index when the index is closed.
+ */
+public class BaseformIndexComponent extends AbstractIndexComponent implements CloseableIndexComponent {
+
+    private final BaseformDictionaryService dictionaryService;
+
+    @Inject
+    public BaseformIndexComponent(Index index, @IndexSettings Settings indexSettings,
+                                  BaseformDictionaryService dictionaryService) {
+        super(index, indexSettings);
+        this.dictionaryService = dictionaryService;
+    }
+
+    @Override
+    public void close() throws ElasticsearchException {
+        dictionaryService.release(index);
+    }
+}
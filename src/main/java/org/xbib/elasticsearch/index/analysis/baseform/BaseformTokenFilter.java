@@ -4,19 +4,29 @@ import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
-import org.apache.lucene.analysis.tokenattributes.PackedTokenAttributeImpl;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
-import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.UnicodeUtil;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenCopy;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
 
 import java.io.IOException;
-import java.nio.charset.CharacterCodingException;
-import java.util.LinkedList;
 
 public class BaseformTokenFilter extends TokenFilter {
 
-    private final LinkedList<PackedTokenAttributeImpl> tokens;
+    private final DictionaryLookup lookup;
 
-    private final Dictionary dictionary;
+    /**
+     * Counts the terms looked up in the stream, or null
+     */
+    private final TokenBudget.Meter meter;
+
+    /**
+     * Counts the terms, base forms and time of the filter, or null
+     */
+    private final TokenFilterStats stats;
 
     private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
 
@@ -24,29 +34,74 @@ public class BaseformTokenFilter extends TokenFilter {
 
     private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
 
-    private AttributeSource.State current;
+    /**
+     * The attributes of the current input token
+     */
+    private final TokenCopy current = new TokenCopy();
+
+    /**
+     * The UTF-8 encoded term, reused for every term
+     */
+    private final BytesRef bytes = new BytesRef(16);
+
+    private final CharsRef baseform = new CharsRef(16);
+
+    private boolean pending;
+
+    /**
+     * True if the base form of the current term was found in the dictionary
+     */
+    private boolean found;
 
     protected BaseformTokenFilter(TokenStream input, Dictionary dictionary) {
+        this(input, dictionary, null);
+    }
+
+    /**
+     * @param input      the input
+     * @param dictionary the dictionary
+     * @param budget     the number of terms looked up per stream, further terms pass through without base forms,
+     *                   or null
+     */
+    protected BaseformTokenFilter(TokenStream input, Dictionary dictionary, TokenBudget budget) {
+        this(input, dictionary, budget, null);
+    }
+
+    /**
+     * @param input      the input
+     * @param dictionary the dictionary
+     * @param budget     the number of terms looked up per stream, further terms pass through without base forms,
+     *                   or null
+     * @param stats      the stats of the filter, or null
+     */
+    protected BaseformTokenFilter(TokenStream input, Dictionary dictionary, TokenBudget budget,
+                                  TokenFilterStats stats) {
         super(input);
-        this.tokens = new LinkedList<PackedTokenAttributeImpl>();
-        this.dictionary = dictionary;
+        this.lookup = new DictionaryLookup(dictionary);
+        this.meter = budget != null ? budget.meter() : null;
+        this.stats = stats;
     }
 
     @Override
     public final boolean incrementToken() throws IOException {
-        if (!tokens.isEmpty()) {
-            assert current != null;
-            PackedTokenAttributeImpl token = tokens.removeFirst();
-            restoreState(current);
-            termAtt.setEmpty().append(token);
-            offsetAtt.setOffset(token.startOffset(), token.endOffset());
+        if (pending) {
+            current.restore(this);
+            termAtt.copyBuffer(baseform.chars, 0, baseform.length);
+            offsetAtt.setOffset(0, 0);
             posIncAtt.setPositionIncrement(0);
+            pending = false;
             return true;
         }
         if (input.incrementToken()) {
-            baseform();
-            if (!tokens.isEmpty()) {
-                current = captureState();
+            if (stats != null) {
+                long start = System.nanoTime();
+                baseform();
+                stats.token(System.nanoTime() - start, found, pending ? 2 : 1);
+            } else {
+                baseform();
+            }
+            if (pending) {
+                current.save(this);
             }
             return true;
         } else {
@@ -54,21 +109,37 @@ public class BaseformTokenFilter extends TokenFilter {
         }
     }
 
-    protected void baseform() throws CharacterCodingException {
-        CharSequence term = new String(termAtt.buffer(), 0, termAtt.length());
-        CharSequence s = dictionary.lookup(term);
-        if (s != null && s.length() > 0) {
-            PackedTokenAttributeImpl impl = new PackedTokenAttributeImpl();
-            impl.append(s);
-            tokens.add(impl);
+    /**
+     * Look up the base form of the current term in its UTF-8 encoding, reusing the buffers of this filter.
+     * A term without a base form is its own base form.
+     */
+    protected void baseform() {
+        found = false;
+        if (meter != null && !meter.spend(1L)) {
+            return;
+        }
+        if (termAtt.length() == 0) {
+            return;
         }
+        UnicodeUtil.UTF16toUTF8(termAtt.buffer(), 0, termAtt.length(), bytes);
+        int length = lookup.lookup(bytes.bytes, bytes.offset, bytes.length);
+        found = length >= 0;
+        if (found) {
+            UnicodeUtil.UTF8toUTF16(lookup.bytes(), 0, length, baseform);
+        } else {
+            baseform.copyChars(termAtt.buffer(), 0, termAtt.length());
+        }
+        pending = true;
     }
 
     @Override
     public void reset() throws IOException {
         super.reset();
-        tokens.clear();
-        current = null;
+        pending = false;
+        if (meter != null) {
+            meter.reset();
+        }
+        current.reset(this);
     }
 
 }
@@ -2,39 +2,80 @@ package org.xbib.elasticsearch.index.analysis.baseform;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.cache.CacheStats;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.assistedinject.Assisted;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
+import org.xbib.elasticsearch.indices.analysis.baseform.BaseformDictionaryService;
+import org.xbib.elasticsearch.indices.analysis.stats.TokenFilterStatsService;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
 
 public class BaseformTokenFilterFactory extends AbstractTokenFilterFactory {
 
     private final Dictionary dictionary;
 
+    private final TokenBudget budget;
+
+    private final TokenFilterStats stats;
+
     @Inject
     public BaseformTokenFilterFactory(Index index,
                                       @IndexSettings Settings indexSettings, Environment env,
+                                      BaseformDictionaryService dictionaryService,
+                                      TokenFilterStatsService statsService,
                                       @Assisted String name, @Assisted Settings settings) {
         super(index, indexSettings, name, settings);
-        this.dictionary = createDictionary(env, settings);
+        this.dictionary = createDictionary(env, dictionaryService, settings);
+        this.budget = TokenBudget.create(index, name, settings);
+        this.stats = statsService.register(index, name, "baseform", new TokenFilterStats.Resources() {
+            @Override
+            public long sizeInBytes() {
+                return dictionary.sizeInBytes();
+            }
+
+            @Override
+            public CacheStats cacheStats() {
+                return null;
+            }
+
+            @Override
+            public XContentBuilder toXContent(XContentBuilder builder, Params params) {
+                return builder;
+            }
+        }, budget);
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new BaseformTokenFilter(tokenStream, dictionary);
+        return new BaseformTokenFilter(tokenStream, dictionary, budget, stats);
+    }
+
+    /**
+     * @return the budget of terms looked up per stream, or null if no budget is configured
+     */
+    public TokenBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the stats of the filter
+     */
+    public TokenFilterStats getStats() {
+        return stats;
     }
 
-    private Dictionary createDictionary(Environment env, Settings settings) {
+    private Dictionary createDictionary(Environment env, BaseformDictionaryService dictionaryService,
+                                        Settings settings) {
         try {
-            String lang = settings.get("language", "de");
-            String path = "/baseform/" + lang + "-lemma-utf8.txt";
-            return new Dictionary().load(new InputStreamReader(env.resolveConfig(path).openStream(), "UTF-8"));
+            return dictionaryService.acquire(index, env, settings);
         } catch (IOException e) {
             throw new ElasticsearchIllegalArgumentException("resources in settings not found: " + settings, e);
         }
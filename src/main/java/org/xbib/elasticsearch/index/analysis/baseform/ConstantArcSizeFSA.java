@@ -1,15 +1,42 @@
 package org.xbib.elasticsearch.index.analysis.baseform;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Set;
 
 /**
  * An FSA with constant-size arc representation produced directly
  * by {@link FSABuilder}.
+ * <p/>
+ * States with many arcs start with a jump table, so the arc of a label is found without a scan,
+ * see {@link FSABuilder#complete(int)}.
+ * <p/>
+ * The compiled form is a header of five ints, the magic, the version, the flags, the epsilon state
+ * and the length of the arc data, followed by the arc data as serialized by the builder.
+ * Version 1 has no jump tables.
  *
  * @see FSABuilder
  */
 public final class ConstantArcSizeFSA extends FSA {
+
+    /**
+     * "BFSA"
+     */
+    public final static int MAGIC = 0x42465341;
+
+    public final static int VERSION = 2;
+
+    /**
+     * Size of the header of the compiled form, the arc data starts at this offset.
+     */
+    public final static int HEADER_SIZE = 5 * 4;
+
     /**
      * Size of the target address field (constant for the builder).
      */
@@ -61,6 +88,18 @@ public final class ConstantArcSizeFSA extends FSA {
      */
     public final static int BIT_ARC_LAST = 1 << 0;
 
+    /**
+     * A marker of a state starting with a jump table, never set in the flags of an arc.
+     * The marker is followed by the index of the arc of each of the 256 labels,
+     * then by the arcs. Labels without an arc have the index of an arc with another label.
+     */
+    public final static int BIT_JUMP_TABLE = 1 << 2;
+
+    /**
+     * Size of a jump table, the marker and the arc indexes.
+     */
+    public final static int JUMP_TABLE_SIZE = 1 + 256;
+
     /**
      * An epsilon state. The first and only arc of this state points either
      * to the root or to the terminal state, indicating an empty automaton.
@@ -89,11 +128,18 @@ public final class ConstantArcSizeFSA extends FSA {
 
     @Override
     public int getFirstArc(int node) {
+        if ((data[node + FLAGS_OFFSET] & BIT_JUMP_TABLE) != 0) {
+            return node + JUMP_TABLE_SIZE;
+        }
         return node;
     }
 
     @Override
     public int getArc(int node, byte label) {
+        if ((data[node + FLAGS_OFFSET] & BIT_JUMP_TABLE) != 0) {
+            int arc = node + JUMP_TABLE_SIZE + (data[node + 1 + (label & 0xff)] & 0xff) * ARC_SIZE;
+            return data[arc + LABEL_OFFSET] == label ? arc : 0;
+        }
         for (int arc = getFirstArc(node); arc != 0; arc = getNextArc(arc)) {
             if (getArcLabel(arc) == label) {
                 return arc;
@@ -149,4 +195,49 @@ public final class ConstantArcSizeFSA extends FSA {
     public Set<FSAFlags> getFlags() {
         return Collections.emptySet();
     }
+
+    @Override
+    public long sizeInBytes() {
+        return data.length;
+    }
+
+    /**
+     * Write this automaton in compiled form.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(FSAFlags.asShort(getFlags()));
+        dos.writeInt(epsilon);
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+    }
+
+    /**
+     * Read an automaton in compiled form, the arc data is read in one piece. The stream is closed.
+     */
+    public static ConstantArcSizeFSA read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a compiled baseform automaton");
+            }
+            int version = dis.readInt();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("unsupported compiled baseform automaton version " + version);
+            }
+            int flags = dis.readInt();
+            if (flags != 0) {
+                throw new IOException("unsupported compiled baseform automaton flags " + flags);
+            }
+            int epsilon = dis.readInt();
+            byte[] data = new byte[dis.readInt()];
+            dis.readFully(data);
+            return new ConstantArcSizeFSA(data, epsilon);
+        } finally {
+            dis.close();
+        }
+    }
 }
@@ -1,8 +1,15 @@
 package org.xbib.elasticsearch.index.analysis.baseform;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.net.URISyntaxException;
+import java.net.URL;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
@@ -24,6 +31,16 @@ public class Dictionary {
     private FSATraversal matcher;
 
     public Dictionary load(Reader in) throws IOException {
+        return load(in, false);
+    }
+
+    /**
+     * Load a lemma list.
+     *
+     * @param in              the lemma list
+     * @param variableArcSize true for building a {@link VariableArcSizeFSA}, which is smaller but slower to build
+     */
+    public Dictionary load(Reader in, boolean variableArcSize) throws IOException {
         BufferedReader reader = new BufferedReader(in);
         List<byte[]> lines = new ArrayList<byte[]>();
         String line;
@@ -36,11 +53,82 @@ public class Dictionary {
         for (byte[] b : lines) {
             builder.add(b, 0, b.length);
         }
-        this.fsa = builder.complete();
+        this.fsa = variableArcSize ? builder.completeVariableArcSize() : builder.complete();
+        this.matcher = new FSATraversal(fsa);
+        return this;
+    }
+
+    /**
+     * @return the size of the automaton in bytes, 0 if not loaded
+     */
+    public long sizeInBytes() {
+        return fsa != null ? fsa.sizeInBytes() : 0L;
+    }
+
+    /**
+     * @return the automaton, null if not loaded
+     */
+    FSA getFSA() {
+        return fsa;
+    }
+
+    /**
+     * Load a dictionary, either a compiled automaton written by {@link #write(OutputStream)}, which is read
+     * without sorting or building, or a UTF-8 lemma list. The stream is closed.
+     */
+    public Dictionary load(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        bin.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = (magic << 8) | (bin.read() & 0xff);
+        }
+        bin.reset();
+        if (magic == ConstantArcSizeFSA.MAGIC) {
+            this.fsa = ConstantArcSizeFSA.read(bin);
+        } else if (magic == VariableArcSizeFSA.MAGIC) {
+            this.fsa = VariableArcSizeFSA.read(bin);
+        } else {
+            return load(new InputStreamReader(bin, UTF8));
+        }
         this.matcher = new FSATraversal(fsa);
         return this;
     }
 
+    /**
+     * Load a dictionary from an URL. If <code>mmap</code> is set and the URL denotes a file in compiled
+     * form, the automaton is memory-mapped, otherwise it is loaded into the heap.
+     */
+    public Dictionary load(URL url, boolean mmap) throws IOException {
+        if (mmap && "file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(url.getPath());
+            }
+            if (MappedConstantArcSizeFSA.isCompiled(file)) {
+                this.fsa = MappedConstantArcSizeFSA.open(file);
+                this.matcher = new FSATraversal(fsa);
+                return this;
+            }
+        }
+        return load(url.openStream());
+    }
+
+    /**
+     * Write the automaton of this dictionary in compiled form.
+     */
+    public void write(OutputStream out) throws IOException {
+        if (fsa instanceof ConstantArcSizeFSA) {
+            ((ConstantArcSizeFSA) fsa).write(out);
+        } else if (fsa instanceof VariableArcSizeFSA) {
+            ((VariableArcSizeFSA) fsa).write(out);
+        } else {
+            throw new IOException("dictionary is not loaded into the heap");
+        }
+    }
+
     public String lookup(CharSequence prefix) throws CharacterCodingException {
         return lookup(UTF8.newEncoder().encode(CharBuffer.wrap(prefix)), prefix.toString());
     }
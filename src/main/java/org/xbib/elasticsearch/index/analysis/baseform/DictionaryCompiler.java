@@ -0,0 +1,47 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+
+/**
+ * Compiles UTF-8 lemma lists into the compiled form of {@link ConstantArcSizeFSA}, or with
+ * <code>-variable</code> of the smaller {@link VariableArcSizeFSA}, which
+ * {@link Dictionary#load(java.io.InputStream)} reads without sorting or building.
+ * <p/>
+ * Usage: <code>DictionaryCompiler [-variable] &lt;input.txt&gt; &lt;output&gt; [&lt;input.txt&gt; &lt;output&gt; ...]</code>
+ */
+public class DictionaryCompiler {
+
+    public static void compile(String input, String output, boolean variableArcSize) throws IOException {
+        Dictionary dictionary = new Dictionary().load(new InputStreamReader(new FileInputStream(input), "UTF-8"),
+                variableArcSize);
+        OutputStream out = new FileOutputStream(output);
+        try {
+            dictionary.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int i = 0;
+        boolean variableArcSize = false;
+        if (args.length > 0 && "-variable".equals(args[0])) {
+            variableArcSize = true;
+            i++;
+        }
+        if (args.length == i || (args.length - i) % 2 != 0) {
+            System.err.println("usage: " + DictionaryCompiler.class.getName()
+                    + " [-variable] <input.txt> <output> [<input.txt> <output> ...]");
+            System.exit(1);
+        }
+        for (; i < args.length; i += 2) {
+            long t0 = System.currentTimeMillis();
+            compile(args[i], args[i + 1], variableArcSize);
+            System.err.println(args[i] + " -> " + args[i + 1] + " (" + (System.currentTimeMillis() - t0) + " ms)");
+        }
+    }
+}
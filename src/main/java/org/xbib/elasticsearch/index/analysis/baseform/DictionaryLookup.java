@@ -0,0 +1,124 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import java.nio.ByteBuffer;
+
+import static org.xbib.elasticsearch.index.analysis.baseform.MatchResult.SEQUENCE_IS_A_PREFIX;
+
+/**
+ * A lookup of base forms in a {@link Dictionary} on UTF-8 encoded words, which produces no garbage.
+ * The match result, the final states iterator and the buffer of the base form are owned by the lookup
+ * and reused, so a lookup must not be shared between threads. A token filter holds one lookup per stream.
+ * <p/>
+ * Like {@link Dictionary#lookup(CharSequence)}, the base form of a base form is followed, up to
+ * {@link #MAX_CHAIN} steps. A chain also ends at a lemma leading back to the word before, so a word
+ * in a cycle of two lemmas, e.g. <code>necropolis</code> and <code>necropoli</code>, gets the other
+ * lemma of the cycle as its base form, independent of the length of the chain.
+ */
+public final class DictionaryLookup {
+
+    /**
+     * The maximum number of base forms followed from a word
+     */
+    public static final int MAX_CHAIN = 8;
+
+    private final FSA fsa;
+
+    private final FSATraversal matcher;
+
+    private final MatchResult match = new MatchResult();
+
+    private final FSAFinalStatesIterator finalStates;
+
+    /**
+     * Two buffers for the base forms of a chain, the current base form and the one before
+     */
+    private final byte[][] buffers = {new byte[32], new byte[32]};
+
+    /**
+     * The buffer of the base form found by the last lookup
+     */
+    private byte[] buffer = buffers[0];
+
+    public DictionaryLookup(Dictionary dictionary) {
+        this.fsa = dictionary.getFSA();
+        this.matcher = new FSATraversal(fsa);
+        this.finalStates = new FSAFinalStatesIterator(fsa, fsa.getRootNode());
+    }
+
+    /**
+     * Look up the base form of a word.
+     *
+     * @param bytes  the UTF-8 encoded word
+     * @param offset the offset of the word
+     * @param length the length of the word
+     * @return the length of the base form in {@link #bytes()}, or -1 if the word has no base form
+     * other than itself
+     */
+    public int lookup(byte[] bytes, int offset, int length) {
+        int found = -1;
+        // the word before the current word of the chain, none for the word looked up
+        byte[] previous = null;
+        int previousOffset = 0;
+        int previousLength = 0;
+        for (int i = 0; i < MAX_CHAIN; i++) {
+            matcher.match(match, bytes, offset, length, fsa.getRootNode());
+            if (match.kind != SEQUENCE_IS_A_PREFIX) {
+                break;
+            }
+            int arc = fsa.getArc(match.node, (byte) '+');
+            if (arc == 0 || fsa.isArcFinal(arc)) {
+                break;
+            }
+            finalStates.restartFrom(fsa.getEndNode(arc));
+            if (!finalStates.hasNext()) {
+                break;
+            }
+            ByteBuffer lemma = finalStates.next();
+            int n = lemma.remaining();
+            if (n == 0 || equals(lemma.array(), lemma.position(), n, bytes, offset, length)) {
+                break;
+            }
+            if (previous != null
+                    && equals(lemma.array(), lemma.position(), n, previous, previousOffset, previousLength)) {
+                // a cycle of two lemmas
+                break;
+            }
+            // the lemma is held by the iterator, the buffer of the word before is overwritten
+            byte[] next = buffers[i & 1];
+            if (next.length < n) {
+                next = new byte[Math.max(n, next.length * 2)];
+                buffers[i & 1] = next;
+            }
+            System.arraycopy(lemma.array(), lemma.position(), next, 0, n);
+            previous = bytes;
+            previousOffset = offset;
+            previousLength = length;
+            bytes = next;
+            offset = 0;
+            length = n;
+            buffer = next;
+            found = n;
+        }
+        return found;
+    }
+
+    /**
+     * @return the buffer holding the base form found by the last {@link #lookup(byte[], int, int)},
+     * from offset 0
+     */
+    public byte[] bytes() {
+        return buffer;
+    }
+
+    private static boolean equals(byte[] a, int aOffset, int length, byte[] b, int bOffset, int bLength) {
+        if (length != bLength) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
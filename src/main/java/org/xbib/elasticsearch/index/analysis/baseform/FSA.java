@@ -78,6 +78,11 @@ public abstract class FSA implements Iterable<ByteBuffer> {
      */
     public abstract Set<FSAFlags> getFlags();
 
+    /**
+     * @return the size of the automaton data in bytes
+     */
+    public abstract long sizeInBytes();
+
     /**
      * @return Returns the number of sequences reachable from the given state if
      * the automaton was compiled with {@link FSAFlags#NUMBERS}. The size of
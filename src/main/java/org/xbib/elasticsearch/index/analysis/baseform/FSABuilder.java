@@ -1,6 +1,7 @@
 package org.xbib.elasticsearch.index.analysis.baseform;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -66,6 +67,11 @@ public final class FSABuilder {
      */
     private final static int BUFFER_GROWTH_SIZE = 5 * MB;
 
+    /**
+     * States with at least this number of arcs get a jump table by default.
+     */
+    public final static int DEFAULT_JUMP_TABLE_FANOUT = 32;
+
     /**
      * Maximum number of labels from a single state.
      */
@@ -197,9 +203,20 @@ public final class FSABuilder {
     private int serializationBufferReallocations;
 
     /**
-     * Complete the automaton.
+     * Complete the automaton, with jump tables for states of at least
+     * {@link #DEFAULT_JUMP_TABLE_FANOUT} arcs.
      */
     public FSA complete() {
+        return complete(DEFAULT_JUMP_TABLE_FANOUT);
+    }
+
+    /**
+     * Complete the automaton. The reachable states are laid out again, without the space of the
+     * active path, and states with many arcs get a jump table, see {@link ConstantArcSizeFSA#BIT_JUMP_TABLE}.
+     *
+     * @param jumpTableFanout states with at least this number of arcs get a jump table, 0 for none
+     */
+    public FSA complete(int jumpTableFanout) {
         add(new byte[0], 0, 0);
         if (nextArcOffset[0] - activePath[0] == 0) {
             // An empty FSA.
@@ -218,12 +235,84 @@ public final class FSABuilder {
         info.put(InfoEntry.STATE_REGISTRY_SIZE, hashSize);
         info.put(InfoEntry.ESTIMATED_MEMORY_CONSUMPTION_MB,
                 (this.serialized.length + this.hashSet.length * 4) / (double) MB);
-        final FSA fsa = new ConstantArcSizeFSA(Arrays.copyOf(this.serialized, this.size), epsilon);
+        final FSA fsa = new ConstantArcSizeFSA(layout(jumpTableFanout), epsilon);
         this.serialized = null;
         this.hashSet = null;
         return fsa;
     }
 
+    /**
+     * Complete the automaton in the variable arc size format of {@link VariableArcSizeFSA}.
+     */
+    public FSA completeVariableArcSize() {
+        return VariableArcSizeFSA.compile(complete(0));
+    }
+
+    /**
+     * Copy the states reachable from the epsilon state in address order, with jump tables
+     * for states of at least <code>jumpTableFanout</code> arcs. The epsilon state stays at 0.
+     */
+    private byte[] layout(int jumpTableFanout) {
+        final int fanout = jumpTableFanout > 0 ? jumpTableFanout : Integer.MAX_VALUE;
+        // the reachable states, the epsilon state included
+        final BitSet reachable = new BitSet(size);
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = epsilon;
+        reachable.set(epsilon);
+        while (top > 0) {
+            int state = stack[--top];
+            for (int arc = state; ; arc += ARC_SIZE) {
+                int target = getArcTarget(arc);
+                if (target != TERMINAL_STATE && !reachable.get(target)) {
+                    reachable.set(target);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top * 2);
+                    }
+                    stack[top++] = target;
+                }
+                if (isArcLast(arc)) {
+                    break;
+                }
+            }
+        }
+        final int[] states = new int[reachable.cardinality()];
+        final int[] addresses = new int[states.length];
+        int length = 0;
+        for (int i = 0, state = reachable.nextSetBit(0); state >= 0; i++, state = reachable.nextSetBit(state + 1)) {
+            states[i] = state;
+            addresses[i] = length;
+            int arcs = stateLength(state) / ARC_SIZE;
+            length += (arcs >= fanout ? ConstantArcSizeFSA.JUMP_TABLE_SIZE : 0) + arcs * ARC_SIZE;
+        }
+        final byte[] data = new byte[length];
+        for (int i = 0; i < states.length; i++) {
+            int state = states[i];
+            int len = stateLength(state);
+            int pos = addresses[i];
+            if (len / ARC_SIZE >= fanout) {
+                // labels without an arc keep the index of the first arc
+                data[pos + FLAGS_OFFSET] = (byte) ConstantArcSizeFSA.BIT_JUMP_TABLE;
+                for (int arc = 0; arc < len / ARC_SIZE; arc++) {
+                    data[pos + 1 + (getArcLabel(state + arc * ARC_SIZE) & 0xff)] = (byte) arc;
+                }
+                pos += ConstantArcSizeFSA.JUMP_TABLE_SIZE;
+            }
+            System.arraycopy(serialized, state, data, pos, len);
+            for (int arc = pos; arc < pos + len; arc += ARC_SIZE) {
+                int target = getArcTarget(state + arc - pos);
+                if (target != TERMINAL_STATE) {
+                    target = addresses[Arrays.binarySearch(states, target)];
+                }
+                for (int j = TARGET_ADDRESS_SIZE - 1; j >= 0; j--) {
+                    data[arc + ADDRESS_OFFSET + j] = (byte) target;
+                    target >>>= 8;
+                }
+            }
+        }
+        return data;
+    }
+
     /**
      * Build a minimal, deterministic automaton from a sorted list of byte sequences.
      */
@@ -0,0 +1,165 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.ADDRESS_OFFSET;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.ARC_SIZE;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.BIT_ARC_FINAL;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.BIT_ARC_LAST;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.BIT_JUMP_TABLE;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.FLAGS_OFFSET;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.HEADER_SIZE;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.JUMP_TABLE_SIZE;
+import static org.xbib.elasticsearch.index.analysis.baseform.ConstantArcSizeFSA.LABEL_OFFSET;
+
+/**
+ * A {@link ConstantArcSizeFSA} reading its arcs from a read-only buffer in the compiled form,
+ * either a direct buffer or a buffer memory-mapped from a compiled dictionary file.
+ * <p/>
+ * All instances mapping the same file share the pages of the operating system cache, so the arcs
+ * are held once per node, outside of the Java heap. The buffer is read at absolute positions only
+ * and may be read by many threads.
+ */
+public final class MappedConstantArcSizeFSA extends FSA {
+
+    private final ByteBuffer buffer;
+
+    private final int epsilon;
+
+    private final int size;
+
+    /**
+     * @param buffer a buffer holding an automaton in compiled form, from position 0
+     * @throws IOException if the buffer does not hold a compiled automaton
+     */
+    public MappedConstantArcSizeFSA(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != ConstantArcSizeFSA.MAGIC) {
+            throw new IOException("not a compiled baseform automaton");
+        }
+        int version = buffer.getInt(4);
+        if (version < 1 || version > ConstantArcSizeFSA.VERSION) {
+            throw new IOException("unsupported compiled baseform automaton version " + version);
+        }
+        int flags = buffer.getInt(8);
+        if (flags != 0) {
+            throw new IOException("unsupported compiled baseform automaton flags " + flags);
+        }
+        this.epsilon = buffer.getInt(12);
+        this.size = buffer.getInt(16);
+        if (buffer.capacity() < HEADER_SIZE + size) {
+            throw new IOException("truncated compiled baseform automaton");
+        }
+        // arc addresses are relative to the arc data
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(HEADER_SIZE);
+        duplicate.limit(HEADER_SIZE + size);
+        this.buffer = duplicate.slice();
+    }
+
+    /**
+     * Map a file in compiled form read-only.
+     */
+    public static MappedConstantArcSizeFSA open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedConstantArcSizeFSA(buffer);
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Check if a file starts with {@link ConstantArcSizeFSA#MAGIC}.
+     */
+    public static boolean isCompiled(File file) throws IOException {
+        if (!file.isFile() || file.length() < HEADER_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == ConstantArcSizeFSA.MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public int getRootNode() {
+        return getEndNode(getFirstArc(epsilon));
+    }
+
+    @Override
+    public int getFirstArc(int node) {
+        if ((buffer.get(node + FLAGS_OFFSET) & BIT_JUMP_TABLE) != 0) {
+            return node + JUMP_TABLE_SIZE;
+        }
+        return node;
+    }
+
+    @Override
+    public int getArc(int node, byte label) {
+        if ((buffer.get(node + FLAGS_OFFSET) & BIT_JUMP_TABLE) != 0) {
+            int arc = node + JUMP_TABLE_SIZE + (buffer.get(node + 1 + (label & 0xff)) & 0xff) * ARC_SIZE;
+            return buffer.get(arc + LABEL_OFFSET) == label ? arc : 0;
+        }
+        for (int arc = getFirstArc(node); arc != 0; arc = getNextArc(arc)) {
+            if (getArcLabel(arc) == label) {
+                return arc;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int getNextArc(int arc) {
+        if ((buffer.get(arc + FLAGS_OFFSET) & BIT_ARC_LAST) != 0) {
+            return 0;
+        }
+        return arc + ARC_SIZE;
+    }
+
+    @Override
+    public byte getArcLabel(int arc) {
+        return buffer.get(arc + LABEL_OFFSET);
+    }
+
+    @Override
+    public boolean isArcFinal(int arc) {
+        return (buffer.get(arc + FLAGS_OFFSET) & BIT_ARC_FINAL) != 0;
+    }
+
+    @Override
+    public boolean isArcTerminal(int arc) {
+        return getEndNode(arc) == 0;
+    }
+
+    @Override
+    public int getEndNode(int arc) {
+        return buffer.getInt(arc + ADDRESS_OFFSET);
+    }
+
+    @Override
+    public Set<FSAFlags> getFlags() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * @return the size of the arc data in bytes, which is outside of the heap
+     */
+    @Override
+    public long sizeInBytes() {
+        return size;
+    }
+}
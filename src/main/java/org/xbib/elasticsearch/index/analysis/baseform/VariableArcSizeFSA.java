@@ -0,0 +1,458 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An FSA with variable-size arcs, compiled from another FSA, usually a {@link ConstantArcSizeFSA}
+ * of {@link FSABuilder}, see {@link FSABuilder#completeVariableArcSize()}.
+ * <p/>
+ * An arc is a flags byte, a label byte and the address of the target node as a variable-length int.
+ * The address is left out if the target node follows the last arc of the node immediately, nodes are
+ * laid out depth first along the last arcs to make this the common case. Address 0 is the terminal node.
+ * Arcs are sorted by unsigned label. Nodes with many arcs start with a table of arc offsets, so the
+ * arc of a label is found by binary search: a marker byte with the width of the offsets, the number
+ * of arcs minus one, and the offsets of the arcs relative to the first arc.
+ * <p/>
+ * The compiled form is a header of five ints, the magic, the version, the flags, the root node
+ * and the length of the data, followed by the data.
+ */
+public final class VariableArcSizeFSA extends FSA {
+
+    /**
+     * "VFSA"
+     */
+    public final static int MAGIC = 0x56465341;
+
+    public final static int VERSION = 1;
+
+    /**
+     * Size of the header of the compiled form.
+     */
+    public final static int HEADER_SIZE = 5 * 4;
+
+    /**
+     * Nodes with at least this number of arcs get a table of arc offsets.
+     */
+    public final static int DEFAULT_INDEX_THRESHOLD = 8;
+
+    /**
+     * An arc flag indicating the arc is last within its state.
+     */
+    final static int BIT_ARC_LAST = 1;
+
+    /**
+     * An arc flag indicating the target node of an arc corresponds to a final state.
+     */
+    final static int BIT_ARC_FINAL = 1 << 1;
+
+    /**
+     * An arc flag indicating the target node follows this arc, the address is left out.
+     */
+    final static int BIT_TARGET_NEXT = 1 << 2;
+
+    /**
+     * The marker of a node with a table of arc offsets, the low bits are the width of the offsets.
+     */
+    final static int BIT_INDEX = 1 << 7;
+
+    private final byte[] data;
+
+    private final int root;
+
+    VariableArcSizeFSA(byte[] data, int root) {
+        this.data = data;
+        this.root = root;
+    }
+
+    /**
+     * Compile an automaton into variable-size arcs, with tables of arc offsets for nodes
+     * of at least {@link #DEFAULT_INDEX_THRESHOLD} arcs.
+     */
+    public static VariableArcSizeFSA compile(FSA fsa) {
+        return compile(fsa, DEFAULT_INDEX_THRESHOLD);
+    }
+
+    /**
+     * Compile an automaton into variable-size arcs.
+     *
+     * @param fsa            the automaton
+     * @param indexThreshold nodes with at least this number of arcs get a table of arc offsets
+     */
+    public static VariableArcSizeFSA compile(FSA fsa, int indexThreshold) {
+        if (fsa.getRootNode() == 0 || fsa.getFirstArc(fsa.getRootNode()) == 0) {
+            return new VariableArcSizeFSA(new byte[1], 0);
+        }
+        Layout layout = new Layout(fsa, Math.max(1, indexThreshold));
+        return new VariableArcSizeFSA(layout.encode(), 1);
+    }
+
+    @Override
+    public int getRootNode() {
+        return root;
+    }
+
+    @Override
+    public int getFirstArc(int node) {
+        if (node == 0) {
+            return 0;
+        }
+        int marker = data[node] & 0xff;
+        if ((marker & BIT_INDEX) != 0) {
+            return node + 2 + ((data[node + 1] & 0xff) + 1) * (marker & ~BIT_INDEX);
+        }
+        return node;
+    }
+
+    @Override
+    public int getArc(int node, byte label) {
+        if (node == 0) {
+            return 0;
+        }
+        int key = label & 0xff;
+        int marker = data[node] & 0xff;
+        if ((marker & BIT_INDEX) != 0) {
+            int width = marker & ~BIT_INDEX;
+            int count = (data[node + 1] & 0xff) + 1;
+            int table = node + 2;
+            int first = table + count * width;
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int arc = first + readOffset(table + mid * width, width);
+                int l = data[arc + 1] & 0xff;
+                if (l < key) {
+                    lo = mid + 1;
+                } else if (l > key) {
+                    hi = mid - 1;
+                } else {
+                    return arc;
+                }
+            }
+            return 0;
+        }
+        for (int arc = node; arc != 0; arc = getNextArc(arc)) {
+            int l = data[arc + 1] & 0xff;
+            if (l == key) {
+                return arc;
+            }
+            if (l > key) {
+                // arcs are sorted by label
+                return 0;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int getNextArc(int arc) {
+        int flags = data[arc];
+        if ((flags & BIT_ARC_LAST) != 0) {
+            return 0;
+        }
+        if ((flags & BIT_TARGET_NEXT) != 0) {
+            return arc + 2;
+        }
+        int pos = arc + 2;
+        while ((data[pos] & 0x80) != 0) {
+            pos++;
+        }
+        return pos + 1;
+    }
+
+    @Override
+    public byte getArcLabel(int arc) {
+        return data[arc + 1];
+    }
+
+    @Override
+    public boolean isArcFinal(int arc) {
+        return (data[arc] & BIT_ARC_FINAL) != 0;
+    }
+
+    @Override
+    public boolean isArcTerminal(int arc) {
+        return (data[arc] & BIT_TARGET_NEXT) == 0 && data[arc + 2] == 0;
+    }
+
+    @Override
+    public int getEndNode(int arc) {
+        if ((data[arc] & BIT_TARGET_NEXT) != 0) {
+            // the last arc of its node, the target follows
+            return arc + 2;
+        }
+        int pos = arc + 2;
+        int b = data[pos];
+        int address = b & 0x7f;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = data[++pos];
+            address |= (b & 0x7f) << shift;
+        }
+        return address;
+    }
+
+    @Override
+    public Set<FSAFlags> getFlags() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return data.length;
+    }
+
+    /**
+     * Write this automaton in compiled form.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(FSAFlags.asShort(getFlags()));
+        dos.writeInt(root);
+        dos.writeInt(data.length);
+        dos.write(data);
+        dos.flush();
+    }
+
+    /**
+     * Read an automaton in compiled form, the data is read in one piece. The stream is closed.
+     */
+    public static VariableArcSizeFSA read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a compiled variable arc size baseform automaton");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported compiled baseform automaton version " + version);
+            }
+            int flags = dis.readInt();
+            if (flags != 0) {
+                throw new IOException("unsupported compiled baseform automaton flags " + flags);
+            }
+            int root = dis.readInt();
+            byte[] data = new byte[dis.readInt()];
+            dis.readFully(data);
+            return new VariableArcSizeFSA(data, root);
+        } finally {
+            dis.close();
+        }
+    }
+
+    private int readOffset(int pos, int width) {
+        int offset = 0;
+        for (int i = 0; i < width; i++) {
+            offset = (offset << 8) | (data[pos + i] & 0xff);
+        }
+        return offset;
+    }
+
+    private static int vintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    private static int offsetWidth(int offset) {
+        int width = 1;
+        while ((offset >>> (8 * width)) != 0) {
+            width++;
+        }
+        return width;
+    }
+
+    /**
+     * The nodes and arcs of an automaton in layout order, and their addresses.
+     */
+    private static class Layout {
+
+        private final int indexThreshold;
+
+        /**
+         * The first arc of a node, the arcs of a node end at the first arc of the next node
+         */
+        private final int[] firstArc;
+
+        private final byte[] labels;
+
+        private final boolean[] finals;
+
+        /**
+         * The target node of an arc, -1 for the terminal node
+         */
+        private final int[] targets;
+
+        private final int[] addresses;
+
+        private int size;
+
+        Layout(FSA fsa, int indexThreshold) {
+            this.indexThreshold = indexThreshold;
+            // depth first, the target of the last arc of a node is placed right after the node
+            Map<Integer, Integer> ids = new HashMap<Integer, Integer>();
+            List<Integer> order = new ArrayList<Integer>();
+            List<Integer> stack = new ArrayList<Integer>();
+            int arcCount = 0;
+            stack.add(fsa.getRootNode());
+            while (!stack.isEmpty()) {
+                int node = stack.remove(stack.size() - 1);
+                if (ids.containsKey(node)) {
+                    continue;
+                }
+                ids.put(node, order.size());
+                order.add(node);
+                int[] arcs = sortedArcs(fsa, node);
+                arcCount += arcs.length;
+                for (int i = 0; i < arcs.length; i++) {
+                    if (!fsa.isArcTerminal(arcs[i])) {
+                        stack.add(fsa.getEndNode(arcs[i]));
+                    }
+                }
+            }
+            this.firstArc = new int[order.size() + 1];
+            this.labels = new byte[arcCount];
+            this.finals = new boolean[arcCount];
+            this.targets = new int[arcCount];
+            int a = 0;
+            for (int n = 0; n < order.size(); n++) {
+                firstArc[n] = a;
+                for (int arc : sortedArcs(fsa, order.get(n))) {
+                    labels[a] = fsa.getArcLabel(arc);
+                    finals[a] = fsa.isArcFinal(arc);
+                    targets[a] = fsa.isArcTerminal(arc) ? -1 : ids.get(fsa.getEndNode(arc));
+                    a++;
+                }
+            }
+            firstArc[order.size()] = a;
+            this.addresses = new int[order.size()];
+            // sizes grow with addresses and addresses grow with sizes, starting from zero this converges
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                int pos = 1;
+                for (int n = 0; n < addresses.length; n++) {
+                    if (addresses[n] != pos) {
+                        addresses[n] = pos;
+                        changed = true;
+                    }
+                    pos += nodeSize(n);
+                }
+                size = pos;
+            }
+        }
+
+        private static int[] sortedArcs(FSA fsa, int node) {
+            int count = 0;
+            for (int arc = fsa.getFirstArc(node); arc != 0; arc = fsa.getNextArc(arc)) {
+                count++;
+            }
+            // unsigned label in the high bits, arc in the low bits, for sorting by label
+            long[] keyed = new long[count];
+            int i = 0;
+            for (int arc = fsa.getFirstArc(node); arc != 0; arc = fsa.getNextArc(arc)) {
+                keyed[i++] = ((long) (fsa.getArcLabel(arc) & 0xff) << 32) | (arc & 0xffffffffL);
+            }
+            Arrays.sort(keyed);
+            int[] arcs = new int[count];
+            for (i = 0; i < count; i++) {
+                arcs[i] = (int) keyed[i];
+            }
+            return arcs;
+        }
+
+        private boolean isTargetNext(int node, int arc) {
+            return arc == firstArc[node + 1] - 1 && targets[arc] == node + 1;
+        }
+
+        private int arcSize(int node, int arc) {
+            if (isTargetNext(node, arc)) {
+                return 2;
+            }
+            return 2 + vintSize(targets[arc] < 0 ? 0 : addresses[targets[arc]]);
+        }
+
+        private int nodeSize(int node) {
+            int arcs = 0;
+            int last = 0;
+            for (int a = firstArc[node]; a < firstArc[node + 1]; a++) {
+                last = arcs;
+                arcs += arcSize(node, a);
+            }
+            int count = firstArc[node + 1] - firstArc[node];
+            if (count >= indexThreshold) {
+                return 2 + count * offsetWidth(last) + arcs;
+            }
+            return arcs;
+        }
+
+        byte[] encode() {
+            byte[] data = new byte[size];
+            for (int n = 0; n < addresses.length; n++) {
+                int pos = addresses[n];
+                int count = firstArc[n + 1] - firstArc[n];
+                int table = -1;
+                int width = 0;
+                if (count >= indexThreshold) {
+                    int last = 0;
+                    for (int a = firstArc[n]; a < firstArc[n + 1] - 1; a++) {
+                        last += arcSize(n, a);
+                    }
+                    width = offsetWidth(last);
+                    data[pos] = (byte) (BIT_INDEX | width);
+                    data[pos + 1] = (byte) (count - 1);
+                    table = pos + 2;
+                    pos = table + count * width;
+                }
+                int first = pos;
+                for (int a = firstArc[n]; a < firstArc[n + 1]; a++) {
+                    if (table >= 0) {
+                        int offset = pos - first;
+                        for (int i = width - 1; i >= 0; i--) {
+                            data[table++] = (byte) (offset >>> (8 * i));
+                        }
+                    }
+                    int flags = 0;
+                    if (a == firstArc[n + 1] - 1) {
+                        flags |= BIT_ARC_LAST;
+                    }
+                    if (finals[a]) {
+                        flags |= BIT_ARC_FINAL;
+                    }
+                    boolean next = isTargetNext(n, a);
+                    if (next) {
+                        flags |= BIT_TARGET_NEXT;
+                    }
+                    data[pos++] = (byte) flags;
+                    data[pos++] = labels[a];
+                    if (!next) {
+                        int address = targets[a] < 0 ? 0 : addresses[targets[a]];
+                        while ((address & ~0x7f) != 0) {
+                            data[pos++] = (byte) ((address & 0x7f) | 0x80);
+                            address >>>= 7;
+                        }
+                        data[pos++] = (byte) address;
+                    }
+                }
+            }
+            return data;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.lucene.analysis.TokenFilter;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
 
 import java.io.IOException;
 import java.util.LinkedList;
@@ -20,8 +21,23 @@ public class ConcatTokenFilter extends TokenFilter {
 
     private boolean concat = false;
 
+    /**
+     * Counts the tokens read and the phrases built in the stream, or null
+     */
+    private final TokenBudget.Meter meter;
+
     protected ConcatTokenFilter(TokenStream input) {
+        this(input, null);
+    }
+
+    /**
+     * @param input  the input
+     * @param budget the number of tokens read and phrases built per stream, beyond which only the phrase
+     *               of the first token at each position is built, or null
+     */
+    protected ConcatTokenFilter(TokenStream input, TokenBudget budget) {
         super(input);
+        this.meter = budget != null ? budget.meter() : null;
         this.termAttr = addAttribute(CharTermAttribute.class);
         this.posIncAttr = addAttribute(PositionIncrementAttribute.class);
         this.words = new LinkedList<List<String>>();
@@ -39,6 +55,12 @@ public class ConcatTokenFilter extends TokenFilter {
         }
         // now write out as a single token
         if (!concat) {
+            if (meter != null && !meter.spend(work(words))) {
+                // pass the tokens through, without combining the alternatives at a position
+                for (List<String> word : words) {
+                    word.subList(1, word.size()).clear();
+                }
+            }
             makePhrases(words, phrases, 0);
             concat = true;
         }
@@ -55,6 +77,32 @@ public class ConcatTokenFilter extends TokenFilter {
         return false;
     }
 
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        // a reused filter starts a new stream
+        words.clear();
+        phrases.clear();
+        current = null;
+        concat = false;
+        if (meter != null) {
+            meter.reset();
+        }
+    }
+
+    /**
+     * @return the number of tokens plus the number of phrases of the tokens, saturated
+     */
+    private static long work(List<List<String>> words) {
+        long tokens = 0L;
+        long phrases = 1L;
+        for (List<String> word : words) {
+            tokens += word.size();
+            phrases = phrases > Long.MAX_VALUE / word.size() ? Long.MAX_VALUE : phrases * word.size();
+        }
+        return phrases > Long.MAX_VALUE - tokens ? Long.MAX_VALUE : tokens + phrases;
+    }
+
     private void makePhrases(List<List<String>> words, List<String> phrases, int currPos) {
         for (int i = currPos; i < words.size(); i++) {
             if (phrases.size() == 0) {
@@ -8,19 +8,23 @@ import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
 
 public class ConcatTokenFilterFactory extends AbstractTokenFilterFactory {
 
+    private final TokenBudget budget;
+
     @Inject
     public ConcatTokenFilterFactory(Index index,
                                     @IndexSettings Settings indexSettings, Environment env,
                                     @Assisted String name, @Assisted Settings settings) {
         super(index, indexSettings, name, settings);
+        this.budget = TokenBudget.create(index, name, settings);
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new ConcatTokenFilter(tokenStream);
+        return new ConcatTokenFilter(tokenStream, budget);
 
     }
 }
@@ -223,6 +223,40 @@ public class CompactPatriciaTrie {
         return this.reverse;
     }
 
+    /**
+     * The serialized string tree of this trie, built from the object tree if necessary.
+     */
+    char[] getStringTree() {
+        if (stringtree == null && root != null) {
+            stringtree = getStringTree(root);
+        }
+        return stringtree;
+    }
+
+    int getStartChar() {
+        return startchar;
+    }
+
+    int getBasis() {
+        return basis;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    char getAttentionNumber() {
+        return attentionNumber;
+    }
+
+    char getAttentionNode() {
+        return attentionNode;
+    }
+
+    char getEndOfWordChar() {
+        return endOfWordChar;
+    }
+
     private String reverse(String s) {
         char[] ret = new char[s.length()];
         StringBuilder torev = new StringBuilder(s);
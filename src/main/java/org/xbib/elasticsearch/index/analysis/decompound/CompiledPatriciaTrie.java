@@ -0,0 +1,555 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * A {@link PatriciaTrie} with node and edge tables in primitive arrays on the heap.
+ * <p/>
+ * The binary form written by {@link #write(OutputStream)} is big-endian and starts with
+ * {@link #MAGIC}, it can be created from existing <code>.tree</code> files by
+ * {@link PatriciaTrieConverter}, and it can be memory-mapped by {@link MappedPatriciaTrie}.
+ */
+public class CompiledPatriciaTrie extends PatriciaTrie {
+
+    /**
+     * "DCPT"
+     */
+    public static final int MAGIC = 0x44435054;
+
+    public static final int VERSION = 1;
+
+    static final int FLAG_REVERSE = 1;
+
+    static final int FLAG_IGNORECASE = 2;
+
+    /**
+     * The dense label alphabet, sorted by character.
+     */
+    private final char[] alphabet;
+
+    private final int[] firstEdge;
+
+    private final int[] winner;
+
+    private final int[] votes;
+
+    private final int[] total;
+
+    private final int[] edgeLabel;
+
+    private final int[] edgeStart;
+
+    private final int[] edgeTarget;
+
+    private final char[] labels;
+
+    CompiledPatriciaTrie(char[] alphabet, int[] firstEdge, int[] winner, int[] votes, int[] total,
+                         int[] edgeLabel, int[] edgeStart, int[] edgeTarget, char[] labels,
+                         String[] classes, char endOfWordChar, boolean reverse, boolean ignorecase) {
+        super(alphabet, classes, endOfWordChar, reverse, ignorecase);
+        this.alphabet = alphabet;
+        this.firstEdge = firstEdge;
+        this.winner = winner;
+        this.votes = votes;
+        this.total = total;
+        this.edgeLabel = edgeLabel;
+        this.edgeStart = edgeStart;
+        this.edgeTarget = edgeTarget;
+        this.labels = labels;
+        decide();
+    }
+
+    @Override
+    public int getNodeCount() {
+        return winner.length;
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeTarget.length;
+    }
+
+    @Override
+    protected int firstEdge(int node) {
+        return firstEdge[node];
+    }
+
+    @Override
+    protected int winner(int node) {
+        return winner[node];
+    }
+
+    @Override
+    protected int votes(int node) {
+        return votes[node];
+    }
+
+    @Override
+    protected int total(int node) {
+        return total[node];
+    }
+
+    @Override
+    protected int edgeLabel(int edge) {
+        return edgeLabel[edge];
+    }
+
+    @Override
+    protected int edgeStart(int edge) {
+        return edgeStart[edge];
+    }
+
+    @Override
+    protected int edgeTarget(int edge) {
+        return edgeTarget[edge];
+    }
+
+    @Override
+    protected char label(int pos) {
+        return labels[pos];
+    }
+
+    /**
+     * Write this trie in binary form.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt((getReverse() ? FLAG_REVERSE : 0) | (getIgnoreCase() ? FLAG_IGNORECASE : 0));
+        dos.writeInt(getEndOfWordChar());
+        writeChars(dos, alphabet);
+        dos.writeInt(winner.length);
+        writeInts(dos, firstEdge);
+        writeInts(dos, winner);
+        writeInts(dos, votes);
+        writeInts(dos, total);
+        dos.writeInt(edgeTarget.length);
+        writeInts(dos, edgeLabel);
+        writeInts(dos, edgeStart);
+        writeInts(dos, edgeTarget);
+        writeChars(dos, labels);
+        dos.writeInt(getClasses().length);
+        for (String s : getClasses()) {
+            dos.writeUTF(s);
+        }
+        dos.flush();
+    }
+
+    /**
+     * Read a trie in binary form. The stream is closed.
+     */
+    public static CompiledPatriciaTrie read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a compiled patricia trie");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported compiled patricia trie version " + version);
+            }
+            int flags = dis.readInt();
+            char eow = (char) dis.readInt();
+            char[] alphabet = readChars(dis, dis.readInt());
+            int nodeCount = dis.readInt();
+            int[] firstEdge = readInts(dis, nodeCount + 1);
+            int[] winner = readInts(dis, nodeCount);
+            int[] votes = readInts(dis, nodeCount);
+            int[] total = readInts(dis, nodeCount);
+            int edgeCount = dis.readInt();
+            int[] edgeLabel = readInts(dis, edgeCount);
+            int[] edgeStart = readInts(dis, edgeCount + 1);
+            int[] edgeTarget = readInts(dis, edgeCount);
+            char[] labels = readChars(dis, dis.readInt());
+            String[] classes = new String[dis.readInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = dis.readUTF();
+            }
+            return new CompiledPatriciaTrie(alphabet, firstEdge, winner, votes, total,
+                    edgeLabel, edgeStart, edgeTarget, labels, classes, eow,
+                    (flags & FLAG_REVERSE) != 0, (flags & FLAG_IGNORECASE) != 0);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Load a trie, either in binary form or as a serialized {@link CompactPatriciaTrie}
+     * which is compiled on the fly. The stream is closed.
+     */
+    public static CompiledPatriciaTrie load(InputStream in) throws IOException, ClassNotFoundException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        bin.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = (magic << 8) | (bin.read() & 0xff);
+        }
+        bin.reset();
+        if (magic == MAGIC) {
+            return read(bin);
+        }
+        CompactPatriciaTrie trie = new CompactPatriciaTrie();
+        trie.load(bin);
+        return compile(trie);
+    }
+
+    /**
+     * Compile a trie. Threshold, case and reverse settings are taken over.
+     */
+    public static CompiledPatriciaTrie compile(CompactPatriciaTrie trie) {
+        char[] stringtree = trie.getStringTree();
+        if (stringtree == null) {
+            throw new IllegalArgumentException("trie is empty");
+        }
+        CompiledPatriciaTrie compiled = new Compiler(trie, stringtree).compile();
+        compiled.setThreshold(trie.getThreshold());
+        return compiled;
+    }
+
+    /**
+     * Prune a trie with the voting logic of {@link CompactPatriciaTrie#prune()}. A child is dropped together
+     * with its subtree if all nodes of the subtree classify like the parent at the threshold of the trie,
+     * so lookups ending in the subtree end at the parent with the same result. With an agreement below 1,
+     * a child is also dropped if it votes for the class of its parent with at least this share of its votes,
+     * although nodes below it may classify otherwise. Labels of edges to leaves are cut to their first character,
+     * which does not change lookups, since a lookup ends at the target of an edge with a mismatching label.
+     *
+     * @param trie      the trie, with its threshold set
+     * @param agreement the share of votes for the class of the parent from which a child is dropped, 1 for
+     *                  pruning without changing lookups
+     * @return the pruned trie on the heap, with the threshold of the given trie
+     */
+    public static CompiledPatriciaTrie prune(PatriciaTrie trie, double agreement) {
+        int nodeCount = trie.getNodeCount();
+        int edgeCount = trie.getEdgeCount();
+        // the nodes in breadth-first order, parents before children
+        int[] order = new int[nodeCount];
+        int n = 1;
+        for (int i = 0; i < n; i++) {
+            for (int e = trie.firstEdge(order[i]); e < trie.firstEdge(order[i] + 1); e++) {
+                order[n++] = trie.edgeTarget(e);
+            }
+        }
+        // bottom up, whether all nodes of the subtree of a node classify like the node
+        boolean[] uniform = new boolean[nodeCount];
+        boolean[] keep = new boolean[edgeCount];
+        boolean[] inner = new boolean[nodeCount];
+        for (int i = n - 1; i >= 0; i--) {
+            int node = order[i];
+            int vote = trie.vote(node);
+            boolean same = true;
+            for (int e = trie.firstEdge(node); e < trie.firstEdge(node + 1); e++) {
+                int child = trie.edgeTarget(e);
+                boolean agrees = uniform[child] && trie.vote(child) == vote;
+                same &= agrees;
+                keep[e] = !agrees && !(agreement < 1.0 && vote >= 0 && trie.winner(child) == vote
+                        && trie.total(child) > 0 && trie.votes(child) >= agreement * trie.total(child));
+                inner[node] |= keep[e];
+            }
+            uniform[node] = same;
+        }
+        int[] firstEdge = new int[nodeCount + 1];
+        int[] winner = new int[nodeCount];
+        int[] votes = new int[nodeCount];
+        int[] total = new int[nodeCount];
+        int[] edgeLabel = new int[edgeCount];
+        int[] edgeStart = new int[edgeCount + 1];
+        int[] edgeTarget = new int[edgeCount];
+        char[] labels = new char[16];
+        int labelLength = 0;
+        int edges = 0;
+        // renumber the kept nodes breadth-first, so the edges of a node stay contiguous
+        order[0] = 0;
+        n = 1;
+        for (int i = 0; i < n; i++) {
+            int node = order[i];
+            firstEdge[i] = edges;
+            winner[i] = trie.winner(node);
+            votes[i] = trie.votes(node);
+            total[i] = trie.total(node);
+            for (int e = trie.firstEdge(node); e < trie.firstEdge(node + 1); e++) {
+                if (!keep[e]) {
+                    continue;
+                }
+                int child = trie.edgeTarget(e);
+                int start = trie.edgeStart(e);
+                int length = inner[child] ? trie.edgeStart(e + 1) - start : 1;
+                labels = ArrayUtil.grow(labels, labelLength + length);
+                for (int j = 0; j < length; j++) {
+                    labels[labelLength + j] = trie.label(start + j);
+                }
+                edgeLabel[edges] = trie.edgeLabel(e);
+                edgeStart[edges] = labelLength;
+                edgeTarget[edges] = n;
+                labelLength += length;
+                edges++;
+                order[n++] = child;
+            }
+        }
+        firstEdge[n] = edges;
+        edgeStart[edges] = labelLength;
+        CompiledPatriciaTrie pruned = new CompiledPatriciaTrie(trie.getAlphabet(),
+                Arrays.copyOf(firstEdge, n + 1), Arrays.copyOf(winner, n), Arrays.copyOf(votes, n),
+                Arrays.copyOf(total, n), Arrays.copyOf(edgeLabel, edges), Arrays.copyOf(edgeStart, edges + 1),
+                Arrays.copyOf(edgeTarget, edges), Arrays.copyOf(labels, labelLength),
+                trie.getClasses(), trie.getEndOfWordChar(), trie.getReverse(), trie.getIgnoreCase());
+        pruned.setThreshold(trie.getThreshold());
+        return pruned;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+        byte[] b = new byte[ints.length * 4];
+        ByteBuffer.wrap(b).asIntBuffer().put(ints);
+        out.write(b);
+    }
+
+    private static void writeChars(DataOutputStream out, char[] chars) throws IOException {
+        out.writeInt(chars.length);
+        byte[] b = new byte[chars.length * 2];
+        ByteBuffer.wrap(b).asCharBuffer().put(chars);
+        out.write(b);
+    }
+
+    private static int[] readInts(DataInputStream in, int n) throws IOException {
+        byte[] b = new byte[n * 4];
+        in.readFully(b);
+        int[] ints = new int[n];
+        ByteBuffer.wrap(b).asIntBuffer().get(ints);
+        return ints;
+    }
+
+    private static char[] readChars(DataInputStream in, int n) throws IOException {
+        byte[] b = new byte[n * 2];
+        in.readFully(b);
+        char[] chars = new char[n];
+        ByteBuffer.wrap(b).asCharBuffer().get(chars);
+        return chars;
+    }
+
+    /**
+     * Walks the string tree of a {@link CompactPatriciaTrie} breadth-first and assigns
+     * node ids in visiting order, so the edges of a node are contiguous.
+     */
+    private static class Compiler {
+
+        private final CompactPatriciaTrie trie;
+
+        private final char[] st;
+
+        private final int[] powers;
+
+        private final Map<String, Integer> classIds = new LinkedHashMap<String, Integer>();
+
+        private int[] positions = new int[16];
+        private int[] firstEdge = new int[16];
+        private int[] winner = new int[16];
+        private int[] votes = new int[16];
+        private int[] total = new int[16];
+        private int nodeCount;
+
+        private int[] edgeChar = new int[16];
+        private int[] edgeStart = new int[16];
+        private int[] edgeTarget = new int[16];
+        private int edgeCount;
+
+        private char[] labels = new char[16];
+        private int labelLength;
+
+        Compiler(CompactPatriciaTrie trie, char[] st) {
+            this.trie = trie;
+            this.st = st;
+            int offset = trie.getOffset();
+            this.powers = new int[offset];
+            for (int i = 0; i < offset; i++) {
+                // same arithmetic as the string tree encoding, rounding included
+                powers[i] = (int) Math.exp((offset - i - 1) * Math.log(trie.getBasis()));
+            }
+        }
+
+        CompiledPatriciaTrie compile() {
+            char attentionNode = trie.getAttentionNode();
+            int i = 0;
+            while (st[i] != attentionNode) {
+                i++;
+            }
+            addNode(i);
+            for (int node = 0; node < nodeCount; node++) {
+                firstEdge[node] = edgeCount;
+                parseNode(node, positions[node]);
+            }
+            firstEdge = ArrayUtil.grow(firstEdge, nodeCount + 1);
+            firstEdge[nodeCount] = edgeCount;
+            edgeStart = ArrayUtil.grow(edgeStart, edgeCount + 1);
+            edgeStart[edgeCount] = labelLength;
+            // dense alphabet, ordered by character so edges stay sorted by label id
+            boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+            int size = 0;
+            for (int e = 0; e < edgeCount; e++) {
+                if (!seen[edgeChar[e]]) {
+                    seen[edgeChar[e]] = true;
+                    size++;
+                }
+            }
+            char[] alphabet = new char[size];
+            int[] ids = new int[Character.MAX_VALUE + 1];
+            for (int c = 0, n = 0; c <= Character.MAX_VALUE; c++) {
+                if (seen[c]) {
+                    ids[c] = n;
+                    alphabet[n++] = (char) c;
+                }
+            }
+            int[] edgeLabel = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                edgeLabel[e] = ids[edgeChar[e]];
+            }
+            return new CompiledPatriciaTrie(alphabet,
+                    Arrays.copyOf(firstEdge, nodeCount + 1),
+                    Arrays.copyOf(winner, nodeCount),
+                    Arrays.copyOf(votes, nodeCount),
+                    Arrays.copyOf(total, nodeCount),
+                    edgeLabel,
+                    Arrays.copyOf(edgeStart, edgeCount + 1),
+                    Arrays.copyOf(edgeTarget, edgeCount),
+                    Arrays.copyOf(labels, labelLength),
+                    classIds.keySet().toArray(new String[classIds.size()]),
+                    trie.getEndOfWordChar(), trie.getReverse(), trie.getIgnoreCase());
+        }
+
+        private int addNode(int pos) {
+            positions = ArrayUtil.grow(positions, nodeCount + 1);
+            firstEdge = ArrayUtil.grow(firstEdge, nodeCount + 1);
+            winner = ArrayUtil.grow(winner, nodeCount + 1);
+            votes = ArrayUtil.grow(votes, nodeCount + 1);
+            total = ArrayUtil.grow(total, nodeCount + 1);
+            positions[nodeCount] = pos;
+            return nodeCount++;
+        }
+
+        private void parseNode(int node, int pos) {
+            char attentionNode = trie.getAttentionNode();
+            char attentionNumber = trie.getAttentionNumber();
+            int i = pos + 2;
+            List<String> nodeClasses = new ArrayList<String>();
+            while (st[i] != ']') {
+                int start = i;
+                while (st[i] != ';' && st[i] != ']') {
+                    i++;
+                }
+                nodeClasses.add(new String(st, start, i - start));
+                if (st[i] != ']') {
+                    i++;
+                }
+            }
+            vote(node, nodeClasses);
+            i++;
+            List<int[]> children = new ArrayList<int[]>();
+            while (i < st.length && st[i] != attentionNode) {
+                int start = i;
+                while (st[i] != attentionNumber) {
+                    i++;
+                }
+                int length = i - start;
+                i++;
+                int child = decode(i);
+                i += powers.length;
+                // the string tree lookup takes the first child starting with a character
+                if (length > 0 && !containsChild(children, st[start])) {
+                    children.add(new int[]{start, length, child});
+                }
+            }
+            Collections.sort(children, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] o1, int[] o2) {
+                    return st[o1[0]] - st[o2[0]];
+                }
+            });
+            for (int[] child : children) {
+                edgeChar = ArrayUtil.grow(edgeChar, edgeCount + 1);
+                edgeStart = ArrayUtil.grow(edgeStart, edgeCount + 1);
+                edgeTarget = ArrayUtil.grow(edgeTarget, edgeCount + 1);
+                labels = ArrayUtil.grow(labels, labelLength + child[1]);
+                edgeChar[edgeCount] = st[child[0]];
+                edgeStart[edgeCount] = labelLength;
+                System.arraycopy(st, child[0], labels, labelLength, child[1]);
+                labelLength += child[1];
+                edgeTarget[edgeCount] = addNode(child[2]);
+                edgeCount++;
+            }
+        }
+
+        private boolean containsChild(List<int[]> children, char c) {
+            for (int[] child : children) {
+                if (st[child[0]] == c) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int decode(int pos) {
+            int ret = 0;
+            for (int i = 0; i < powers.length; i++) {
+                ret += (st[pos + i] - trie.getStartChar()) * powers[i];
+            }
+            return ret;
+        }
+
+        /**
+         * Same voting as {@link CompactPatriciaTrie}, without the threshold decision.
+         */
+        private void vote(int node, List<String> nodeClasses) {
+            int sum = 0;
+            int maxval = 0;
+            String maxclass = UNDECIDED;
+            for (String cl : nodeClasses) {
+                StringTokenizer tokenizer = new StringTokenizer(cl, "=");
+                if (!tokenizer.hasMoreTokens()) {
+                    continue;
+                }
+                String actclass = tokenizer.nextToken();
+                int actval = 0;
+                if (tokenizer.hasMoreTokens()) {
+                    try {
+                        actval = Integer.parseInt(tokenizer.nextToken());
+                    } catch (NumberFormatException e) {
+                        actval = 0;
+                    }
+                }
+                sum += actval;
+                if (actval > maxval) {
+                    maxval = actval;
+                    maxclass = actclass;
+                }
+                if ((actval == maxval) && !actclass.equals(maxclass) && !actclass.isEmpty()) {
+                    maxclass += ";" + actclass;
+                }
+            }
+            Integer id = classIds.get(maxclass);
+            if (id == null) {
+                id = classIds.size();
+                classIds.put(maxclass, id);
+            }
+            winner[node] = id;
+            votes[node] = maxval;
+            total[node] = sum;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.fst.FST;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reusable buffer receiving the parts of decompounded words, with the working state
+ * of the decompounder: scratch space for the words under decompounding, the stack of
+ * pending words and the memo of words already decompounded, and the readers and arcs
+ * for walking the FSTs of the decompounder.
+ * <p/>
+ * The parts are stored back to back in one character array, their ends in an int array.
+ * Arrays grow on demand and are never shrunk, so a buffer owned by a token filter
+ * stops allocating after the first few tokens. A buffer must not be shared between threads.
+ */
+public final class DecompoundBuffer {
+
+    /**
+     * The number of ints of a frame of the decompounder
+     */
+    static final int FRAME = 6;
+
+    /**
+     * The number of ints of a memo entry of the decompounder
+     */
+    static final int MEMO = 5;
+
+    /**
+     * The FST slot of the {@link DecompoundDictionary}
+     */
+    static final int DICTIONARY = 0;
+
+    /**
+     * The FST slot of the lexicon of a {@link LexiconDecompounder}
+     */
+    static final int LEXICON = 1;
+
+    private static final int SLOTS = 2;
+
+    private char[] chars = new char[32];
+
+    private int[] ends = new int[4];
+
+    private int size;
+
+    private char[] work = new char[64];
+
+    private int workLength;
+
+    private int[] frames = new int[8 * FRAME];
+
+    private int framesLength;
+
+    private int[] memo = new int[8 * MEMO];
+
+    private int memoLength;
+
+    private final int[] split = new int[10];
+
+    private int[] lattice = new int[64];
+
+    private final DecompoundCache.Key probe = new DecompoundCache.Key();
+
+    private final FST<?>[] fsts = new FST<?>[SLOTS];
+
+    private final FST.BytesReader[] readers = new FST.BytesReader[SLOTS];
+
+    private final FST.Arc<?>[] arcs = new FST.Arc<?>[SLOTS];
+
+    private char[] output = new char[32];
+
+    public void clear() {
+        size = 0;
+        workLength = 0;
+        framesLength = 0;
+        memoLength = 0;
+    }
+
+    /**
+     * @return the number of parts
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the characters of all parts
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    /**
+     * @return the start of a part in {@link #chars()}
+     */
+    public int offset(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    /**
+     * @return the length of a part
+     */
+    public int length(int i) {
+        return ends[i] - offset(i);
+    }
+
+    public String toString(int i) {
+        return new String(chars, offset(i), length(i));
+    }
+
+    public void add(char[] buffer, int offset, int length) {
+        int start = offset(size);
+        chars = ArrayUtil.grow(chars, start + length);
+        System.arraycopy(buffer, offset, chars, start, length);
+        ends = ArrayUtil.grow(ends, size + 1);
+        ends[size++] = start + length;
+    }
+
+    public void add(String s) {
+        int start = offset(size);
+        chars = ArrayUtil.grow(chars, start + s.length());
+        s.getChars(0, s.length(), chars, start);
+        ends = ArrayUtil.grow(ends, size + 1);
+        ends[size++] = start + s.length();
+    }
+
+    public List<String> toList() {
+        List<String> list = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(toString(i));
+        }
+        return list;
+    }
+
+    /**
+     * @return the scratch space, valid until the next {@link #push(int)}
+     */
+    char[] work() {
+        return work;
+    }
+
+    /**
+     * Reserve scratch space on top of the stack.
+     *
+     * @param length the length to reserve
+     * @return the start of the reserved space
+     */
+    int push(int length) {
+        int start = workLength;
+        work = ArrayUtil.grow(work, start + length);
+        workLength += length;
+        return start;
+    }
+
+    /**
+     * Release scratch space down to a start returned by {@link #push(int)}.
+     */
+    void pop(int start) {
+        workLength = start;
+    }
+
+    /**
+     * @return the top of the scratch space stack
+     */
+    int top() {
+        return workLength;
+    }
+
+    /**
+     * @return the frame stack, valid until the next {@link #pushFrame()}
+     */
+    int[] frames() {
+        return frames;
+    }
+
+    /**
+     * Push a frame of {@link #FRAME} ints.
+     *
+     * @return the position of the frame in {@link #frames()}
+     */
+    int pushFrame() {
+        int pos = framesLength;
+        frames = ArrayUtil.grow(frames, pos + FRAME);
+        framesLength += FRAME;
+        return pos;
+    }
+
+    /**
+     * Pop a frame.
+     *
+     * @return the position of the frame in {@link #frames()}, or -1 if the stack is empty
+     */
+    int popFrame() {
+        if (framesLength == 0) {
+            return -1;
+        }
+        framesLength -= FRAME;
+        return framesLength;
+    }
+
+    /**
+     * @return the memo, valid until the next {@link #pushMemo()}
+     */
+    int[] memo() {
+        return memo;
+    }
+
+    /**
+     * @return the number of ints in {@link #memo()}
+     */
+    int memoLength() {
+        return memoLength;
+    }
+
+    /**
+     * Add a memo entry of {@link #MEMO} ints.
+     *
+     * @return the position of the entry in {@link #memo()}
+     */
+    int pushMemo() {
+        int pos = memoLength;
+        memo = ArrayUtil.grow(memo, pos + MEMO);
+        memoLength += MEMO;
+        return pos;
+    }
+
+    /**
+     * @return room for the start and length of up to four parts of a split, and of the split word
+     */
+    int[] split() {
+        return split;
+    }
+
+    /**
+     * @return an int array of at least the given length, for engines keeping a lattice over a word
+     */
+    int[] lattice(int length) {
+        lattice = ArrayUtil.grow(lattice, length);
+        return lattice;
+    }
+
+    /**
+     * @return the key for looking up terms in a {@link DecompoundCache} without allocating
+     */
+    DecompoundCache.Key probe() {
+        return probe;
+    }
+
+    /**
+     * @return a reader of an FST in a slot, created again only when the FST of the slot changes
+     * by a reload of the decompounder
+     */
+    FST.BytesReader reader(FST<?> fst, int slot) {
+        if (fsts[slot] != fst) {
+            readers[slot] = fst.getBytesReader();
+            fsts[slot] = fst;
+        }
+        return readers[slot];
+    }
+
+    /**
+     * @return the arc of a slot, the outputs of an FST in a slot must always be of the same type
+     */
+    @SuppressWarnings("unchecked")
+    <T> FST.Arc<T> arc(int slot) {
+        if (arcs[slot] == null) {
+            arcs[slot] = new FST.Arc<T>();
+        }
+        return (FST.Arc<T>) arcs[slot];
+    }
+
+    /**
+     * @return a character array of at least the given length, for collecting the outputs of an FST,
+     * keeping its contents when it grows
+     */
+    char[] output(int length) {
+        output = ArrayUtil.grow(output, length);
+        return output;
+    }
+}
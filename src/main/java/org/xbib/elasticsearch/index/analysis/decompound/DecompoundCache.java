@@ -0,0 +1,161 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.unit.TimeValue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded, concurrent cache of the results of {@link Decompounder#decompound(char[], int, int, DecompoundBuffer)},
+ * keyed by term.
+ * <p/>
+ * The cache is segmented, each segment is locked on its own, so lookups of
+ * different terms rarely contend. Least recently used terms are evicted first.
+ * <p/>
+ * Terms are looked up with the reusable probe key of the {@link DecompoundBuffer} of a filter, and parts
+ * are cached in a single character array, so a hit copies the parts into the buffer without allocating.
+ * Only a miss allocates, for the key and the parts it adds.
+ */
+public class DecompoundCache {
+
+    private final Decompounder decompounder;
+
+    private final Cache<Key, Parts> cache;
+
+    /**
+     * @param decompounder     the decompounder
+     * @param maxSize          the maximum number of cached terms
+     * @param expire           evict terms not accessed for this time, or null for no expiration
+     * @param concurrencyLevel the number of segments
+     */
+    public DecompoundCache(Decompounder decompounder, long maxSize, TimeValue expire, int concurrencyLevel) {
+        this.decompounder = decompounder;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .concurrencyLevel(concurrencyLevel)
+                .maximumSize(maxSize)
+                .recordStats();
+        if (expire != null && expire.millis() > 0) {
+            builder.expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS);
+        }
+        this.cache = builder.build();
+    }
+
+    /**
+     * @return the parts of a term, unmodifiable
+     */
+    public List<String> decompound(String term) {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        decompound(term.toCharArray(), 0, term.length(), parts);
+        return Collections.unmodifiableList(parts.toList());
+    }
+
+    /**
+     * Decompound a term in a character buffer, see {@link Decompounder#decompound(char[], int, int, DecompoundBuffer)}.
+     */
+    public void decompound(char[] term, int offset, int length, DecompoundBuffer parts) {
+        Parts cached = cache.getIfPresent(parts.probe().set(term, offset, length));
+        if (cached != null) {
+            cached.copyTo(parts);
+            return;
+        }
+        decompounder.decompound(term, offset, length, parts);
+        cache.put(new Key().set(Arrays.copyOfRange(term, offset, offset + length), 0, length), new Parts(parts));
+    }
+
+    /**
+     * @return hit, miss and eviction counts
+     */
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * A term in a character buffer. Cached keys own their characters, the probe key of a
+     * {@link DecompoundBuffer} is set to the term buffer of each lookup and never cached.
+     */
+    static final class Key {
+
+        private char[] chars;
+
+        private int offset;
+
+        private int length;
+
+        private int hash;
+
+        Key set(char[] chars, int offset, int length) {
+            this.chars = chars;
+            this.offset = offset;
+            this.length = length;
+            int h = 0;
+            for (int i = offset; i < offset + length; i++) {
+                h = 31 * h + chars[i];
+            }
+            this.hash = h;
+            return this;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (hash != other.hash || length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[offset + i] != other.chars[other.offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The parts of a term, back to back in one character array, with their ends.
+     */
+    private static final class Parts {
+
+        private final char[] chars;
+
+        private final int[] ends;
+
+        Parts(DecompoundBuffer parts) {
+            int size = parts.size();
+            this.ends = new int[size];
+            for (int i = 0; i < size; i++) {
+                ends[i] = parts.offset(i) + parts.length(i);
+            }
+            this.chars = Arrays.copyOf(parts.chars(), size > 0 ? ends[size - 1] : 0);
+        }
+
+        void copyTo(DecompoundBuffer parts) {
+            parts.clear();
+            int start = 0;
+            for (int end : ends) {
+                parts.add(chars, start, end - start);
+                start = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.store.InputStreamDataInput;
+import org.apache.lucene.store.OutputStreamDataOutput;
+import org.apache.lucene.util.CharsRef;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.CharSequenceOutputs;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A dictionary of words with fixed parts, which overrides the tries of a {@link Decompounder}.
+ * <p/>
+ * Words and their parts are compiled into an {@link FST} from words to the parts separated
+ * by a space. A lookup walks the FST over the term buffer.
+ * <p/>
+ * The source is UTF-8, with a word followed by its parts per line, separated by white space.
+ * A word without parts is not decompounded. Empty lines and lines starting with <code>#</code>
+ * are skipped. Words are case sensitive. If a word occurs more than once, the last line wins.
+ * <p/>
+ * The compiled FST can be written in a binary form starting with {@link #MAGIC}, which is read
+ * without building the FST again. {@link DecompoundPrecomputer} writes the splits of a term list
+ * in this form.
+ */
+public class DecompoundDictionary {
+
+    /**
+     * "DCDT"
+     */
+    public static final int MAGIC = 0x44434454;
+
+    public static final int VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final char SEPARATOR = ' ';
+
+    private final FST<CharsRef> fst;
+
+    private final int size;
+
+    /**
+     * @param words the parts by word
+     */
+    public DecompoundDictionary(Map<String, List<String>> words) throws IOException {
+        // the FST needs the words sorted by UTF-16 code units
+        TreeMap<String, List<String>> sorted = new TreeMap<String, List<String>>(words);
+        Builder<CharsRef> builder = new Builder<CharsRef>(FST.INPUT_TYPE.BYTE2, CharSequenceOutputs.getSingleton());
+        IntsRef scratch = new IntsRef();
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : sorted.entrySet()) {
+            sb.setLength(0);
+            List<String> parts = entry.getValue();
+            if (parts.isEmpty()) {
+                sb.append(entry.getKey());
+            }
+            for (String part : parts) {
+                if (sb.length() > 0) {
+                    sb.append(SEPARATOR);
+                }
+                sb.append(part);
+            }
+            builder.add(Util.toUTF16(entry.getKey(), scratch), new CharsRef(sb.toString()));
+        }
+        this.fst = builder.finish();
+        this.size = sorted.size();
+    }
+
+    private DecompoundDictionary(FST<CharsRef> fst, int size) {
+        this.fst = fst;
+        this.size = size;
+    }
+
+    /**
+     * Write this dictionary in binary form.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(out));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(size);
+        // an empty dictionary has no FST
+        dos.writeBoolean(fst != null);
+        if (fst != null) {
+            fst.save(new OutputStreamDataOutput(dos));
+        }
+        dos.flush();
+    }
+
+    /**
+     * Read a dictionary in binary form. The stream is closed.
+     */
+    public static DecompoundDictionary read(InputStream in) throws IOException {
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(in));
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException("not a compiled decompound dictionary");
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported compiled decompound dictionary version " + version);
+            }
+            int size = dis.readInt();
+            FST<CharsRef> fst = dis.readBoolean() ?
+                    new FST<CharsRef>(new InputStreamDataInput(dis), CharSequenceOutputs.getSingleton()) : null;
+            return new DecompoundDictionary(fst, size);
+        } finally {
+            dis.close();
+        }
+    }
+
+    /**
+     * Load a dictionary, either in binary form or in the source format of the class comment.
+     * The stream is closed.
+     */
+    public static DecompoundDictionary load(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in);
+        bin.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            magic = (magic << 8) | (bin.read() & 0xff);
+        }
+        bin.reset();
+        if (magic == MAGIC) {
+            return read(bin);
+        }
+        Map<String, List<String>> words = new TreeMap<String, List<String>>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(bin, UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                List<String> parts = new ArrayList<String>(fields.length - 1);
+                for (int i = 1; i < fields.length; i++) {
+                    parts.add(fields[i]);
+                }
+                words.put(fields[0], parts);
+            }
+        } finally {
+            reader.close();
+        }
+        return new DecompoundDictionary(words);
+    }
+
+    /**
+     * @return the number of words
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the size of the FST in bytes
+     */
+    public long sizeInBytes() {
+        return fst != null ? fst.sizeInBytes() : 0L;
+    }
+
+    /**
+     * Look up a word in a character buffer. The FST is walked with the reader, the arc and the
+     * output array of the parts buffer, so only the outputs read from the arcs are allocated.
+     *
+     * @param word   the buffer
+     * @param offset the start of the word in the buffer
+     * @param length the length of the word
+     * @param parts  the buffer receiving the parts of a word found, cleared before use
+     * @return true if the word was found
+     */
+    public boolean decompound(char[] word, int offset, int length, DecompoundBuffer parts) {
+        if (fst == null) {
+            return false;
+        }
+        FST.BytesReader reader = parts.reader(fst, DecompoundBuffer.DICTIONARY);
+        FST.Arc<CharsRef> arc = fst.getFirstArc(parts.<CharsRef>arc(DecompoundBuffer.DICTIONARY));
+        char[] output = parts.output(0);
+        int outputLength = 0;
+        try {
+            for (int i = 0; i < length; i++) {
+                if (fst.findTargetArc(word[offset + i], arc, arc, reader) == null) {
+                    return false;
+                }
+                if (arc.output.length > 0) {
+                    output = append(parts, outputLength, arc.output);
+                    outputLength += arc.output.length;
+                }
+            }
+        } catch (IOException e) {
+            // the FST is on the heap
+            throw new IllegalStateException(e);
+        }
+        if (!arc.isFinal()) {
+            return false;
+        }
+        if (arc.nextFinalOutput.length > 0) {
+            output = append(parts, outputLength, arc.nextFinalOutput);
+            outputLength += arc.nextFinalOutput.length;
+        }
+        parts.clear();
+        int start = 0;
+        for (int i = 0; i <= outputLength; i++) {
+            if (i == outputLength || output[i] == SEPARATOR) {
+                parts.add(output, start, i - start);
+                start = i + 1;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the parts of a word, or null if the word is not in this dictionary
+     */
+    public List<String> decompound(String word) {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        return decompound(word.toCharArray(), 0, word.length(), parts) ? parts.toList() : null;
+    }
+
+    private static char[] append(DecompoundBuffer parts, int length, CharsRef chars) {
+        char[] output = parts.output(length + chars.length);
+        System.arraycopy(chars.chars, chars.offset, output, length, chars.length);
+        return output;
+    }
+}
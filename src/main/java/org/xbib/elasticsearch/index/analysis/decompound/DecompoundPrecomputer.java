@@ -0,0 +1,189 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decompounds a term list in parallel and compiles the splits into a {@link DecompoundDictionary}.
+ * <p/>
+ * Written in binary form, the dictionary is configured as the <code>dictionary</code> of a decompound
+ * token filter, so the terms of a vocabulary which rarely changes are looked up instead of decompounded.
+ * Terms not in the list are decompounded by the tries. Terms which are not split are kept in the
+ * dictionary without parts, so they are not decompounded again either.
+ * <p/>
+ * Usage: <code>DecompoundPrecomputer [-threshold &lt;t&gt;] [-dictionary &lt;d&gt;] [-parallelism &lt;n&gt;]
+ * &lt;forward&gt; &lt;backward&gt; &lt;reduce&gt; &lt;terms&gt; &lt;output&gt;</code>
+ * <p/>
+ * The terms are UTF-8 with one term per line, e.g. a terms dump of a Lucene index.
+ */
+public class DecompoundPrecomputer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The number of consecutive terms decompounded by a single task
+     */
+    private static final int RANGE = 1024;
+
+    private final Decompounder decompounder;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    public DecompoundPrecomputer(Decompounder decompounder) {
+        this.decompounder = decompounder;
+    }
+
+    public DecompoundPrecomputer setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Decompound terms.
+     *
+     * @param terms the terms
+     * @return the dictionary of the terms and their parts
+     */
+    public DecompoundDictionary precompute(List<String> terms) throws IOException {
+        String[][] parts = new String[terms.size()][];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DecompoundTask(terms, parts, 0, terms.size()));
+        } finally {
+            pool.shutdown();
+        }
+        Map<String, List<String>> words = new TreeMap<String, List<String>>();
+        for (int i = 0; i < parts.length; i++) {
+            words.put(terms.get(i), parts[i].length > 0 ?
+                    Arrays.asList(parts[i]) : Collections.<String>emptyList());
+        }
+        return new DecompoundDictionary(words);
+    }
+
+    /**
+     * Read a term list of one term per line. Empty lines are skipped. The stream is closed.
+     *
+     * @return the distinct terms, sorted
+     */
+    public static List<String> readTerms(InputStream in) throws IOException {
+        TreeSet<String> terms = new TreeSet<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    terms.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new ArrayList<String>(terms);
+    }
+
+    private class DecompoundTask extends RecursiveAction {
+
+        private final List<String> terms;
+
+        private final String[][] parts;
+
+        private final int from;
+
+        private final int to;
+
+        DecompoundTask(List<String> terms, String[][] parts, int from, int to) {
+            this.terms = terms;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RANGE) {
+                DecompoundBuffer buffer = new DecompoundBuffer();
+                for (int i = from; i < to; i++) {
+                    char[] term = terms.get(i).toCharArray();
+                    decompounder.decompound(term, 0, term.length, buffer);
+                    if (buffer.size() == 1 && terms.get(i).equals(buffer.toString(0))) {
+                        // not split, the term stands for itself
+                        parts[i] = new String[0];
+                    } else {
+                        parts[i] = buffer.toList().toArray(new String[buffer.size()]);
+                    }
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecompoundTask(terms, parts, from, mid), new DecompoundTask(terms, parts, mid, to));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        double threshold = 0.51;
+        String dictionary = null;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                if ("-threshold".equals(args[i])) {
+                    threshold = Double.parseDouble(args[++i]);
+                } else if ("-dictionary".equals(args[i])) {
+                    dictionary = args[++i];
+                } else if ("-parallelism".equals(args[i])) {
+                    parallelism = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            i = -1;
+        }
+        if (i < 0 || args.length - i != 5) {
+            System.err.println("usage: " + DecompoundPrecomputer.class.getName()
+                    + " [-threshold <t>] [-dictionary <d>] [-parallelism <n>]"
+                    + " <forward> <backward> <reduce> <terms> <output>");
+            System.exit(1);
+        }
+        long t0 = System.currentTimeMillis();
+        Decompounder decompounder = new Decompounder(
+                PatriciaTrie.load(new File(args[i]).toURI().toURL(), true),
+                PatriciaTrie.load(new File(args[i + 1]).toURI().toURL(), true),
+                PatriciaTrie.load(new File(args[i + 2]).toURI().toURL(), true),
+                threshold, Decompounder.DEFAULT_MAX_DEPTH, Decompounder.DEFAULT_MAX_WORD_LENGTH,
+                Decompounder.DEFAULT_MAX_PARTS,
+                dictionary != null ? DecompoundDictionary.load(new FileInputStream(dictionary)) : null);
+        List<String> terms = readTerms(new FileInputStream(args[i + 3]));
+        DecompoundDictionary precomputed = new DecompoundPrecomputer(decompounder)
+                .setParallelism(parallelism)
+                .precompute(terms);
+        OutputStream out = new FileOutputStream(args[i + 4]);
+        try {
+            precomputed.write(out);
+        } finally {
+            out.close();
+        }
+        System.err.println(args[i + 3] + " -> " + args[i + 4] + " (" + terms.size() + " terms, "
+                + (System.currentTimeMillis() - t0) + " ms)");
+    }
+}
@@ -0,0 +1,81 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.elasticsearch.common.metrics.CounterMetric;
+
+/**
+ * Decides before any trie lookup whether a term is worth decompounding.
+ * <p/>
+ * A term is rejected if it is shorter than the minimum length, if it contains a character which
+ * is not a letter and only letters are accepted, or if it is in a set of known simplex words.
+ * Rejected terms are counted. The prefilter is shared by all streams of a token filter.
+ */
+public class DecompoundPrefilter {
+
+    private final int minLength;
+
+    private final boolean lettersOnly;
+
+    private final CharArraySet words;
+
+    private final CounterMetric accepted = new CounterMetric();
+
+    private final CounterMetric skipped = new CounterMetric();
+
+    /**
+     * @param minLength   the minimum length of a term, 0 for no minimum
+     * @param lettersOnly true if terms with characters other than letters are rejected
+     * @param words       words which are never decompounded, or null
+     */
+    public DecompoundPrefilter(int minLength, boolean lettersOnly, CharArraySet words) {
+        this.minLength = minLength;
+        this.lettersOnly = lettersOnly;
+        this.words = words != null && !words.isEmpty() ? words : null;
+    }
+
+    /**
+     * @return true if this prefilter may reject a term
+     */
+    public boolean isEnabled() {
+        return minLength > 0 || lettersOnly || words != null;
+    }
+
+    /**
+     * @return true if the term should be decompounded
+     */
+    public boolean accept(char[] term, int offset, int length) {
+        if (length < minLength || (lettersOnly && !letters(term, offset, length))
+                || (words != null && words.contains(term, offset, length))) {
+            skipped.inc();
+            return false;
+        }
+        accepted.inc();
+        return true;
+    }
+
+    /**
+     * @return the number of accepted terms
+     */
+    public long accepted() {
+        return accepted.count();
+    }
+
+    /**
+     * @return the number of rejected terms
+     */
+    public long skipped() {
+        return skipped.count();
+    }
+
+    private static boolean letters(char[] term, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; ) {
+            int c = Character.codePointAt(term, i, end);
+            if (!Character.isLetter(c)) {
+                return false;
+            }
+            i += Character.charCount(c);
+        }
+        return true;
+    }
+}
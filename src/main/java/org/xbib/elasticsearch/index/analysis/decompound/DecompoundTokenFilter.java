@@ -5,16 +5,35 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
 import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
-import org.apache.lucene.util.AttributeSource;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenCopy;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
 
 import java.io.IOException;
-import java.util.LinkedList;
 
 public class DecompoundTokenFilter extends TokenFilter {
 
-    protected final LinkedList<DecompoundToken> tokens;
+    protected final DecompoundBuffer parts = new DecompoundBuffer();
 
-    protected final Decompounder decomp;
+    protected final DecompounderHolder holder;
+
+    protected final boolean useCache;
+
+    protected final DecompoundPrefilter prefilter;
+
+    /**
+     * Counts the terms decompounded in the stream, or null
+     */
+    protected final TokenBudget.Meter meter;
+
+    /**
+     * Counts the terms, parts and time of the filter, or null
+     */
+    protected final TokenFilterStats stats;
+
+    protected Decompounder decomp;
+
+    protected DecompoundCache cache;
 
     protected final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
 
@@ -22,29 +41,103 @@ public class DecompoundTokenFilter extends TokenFilter {
 
     private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
 
-    private AttributeSource.State current;
+    /**
+     * The attributes of the current input token
+     */
+    private final TokenCopy current = new TokenCopy();
+
+    /**
+     * The next part to emit
+     */
+    private int part;
+
+    /**
+     * The start offset of the next part
+     */
+    private int partOffset;
 
     protected DecompoundTokenFilter(TokenStream input, Decompounder decomp) {
+        this(input, decomp, null);
+    }
+
+    protected DecompoundTokenFilter(TokenStream input, Decompounder decomp, DecompoundCache cache) {
+        this(input, new DecompounderHolder(decomp, cache), cache != null);
+    }
+
+    /**
+     * @param input    the input
+     * @param holder   the holder of the decompounder, the current generation is taken on each reset
+     * @param useCache true if the result cache of the decompounder should be used
+     */
+    protected DecompoundTokenFilter(TokenStream input, DecompounderHolder holder, boolean useCache) {
+        this(input, holder, useCache, null);
+    }
+
+    /**
+     * @param input     the input
+     * @param holder    the holder of the decompounder, the current generation is taken on each reset
+     * @param useCache  true if the result cache of the decompounder should be used
+     * @param prefilter terms rejected by the prefilter pass through without parts, or null
+     */
+    protected DecompoundTokenFilter(TokenStream input, DecompounderHolder holder, boolean useCache,
+                                    DecompoundPrefilter prefilter) {
+        this(input, holder, useCache, prefilter, null);
+    }
+
+    /**
+     * @param input     the input
+     * @param holder    the holder of the decompounder, the current generation is taken on each reset
+     * @param useCache  true if the result cache of the decompounder should be used
+     * @param prefilter terms rejected by the prefilter pass through without parts, or null
+     * @param budget    the number of terms decompounded per stream, further terms pass through without parts,
+     *                  or null
+     */
+    protected DecompoundTokenFilter(TokenStream input, DecompounderHolder holder, boolean useCache,
+                                    DecompoundPrefilter prefilter, TokenBudget budget) {
+        this(input, holder, useCache, prefilter, budget, null);
+    }
+
+    /**
+     * @param input     the input
+     * @param holder    the holder of the decompounder, the current generation is taken on each reset
+     * @param useCache  true if the result cache of the decompounder should be used
+     * @param prefilter terms rejected by the prefilter pass through without parts, or null
+     * @param budget    the number of terms decompounded per stream, further terms pass through without parts,
+     *                  or null
+     * @param stats     the stats of the filter, or null
+     */
+    protected DecompoundTokenFilter(TokenStream input, DecompounderHolder holder, boolean useCache,
+                                    DecompoundPrefilter prefilter, TokenBudget budget, TokenFilterStats stats) {
         super(input);
-        this.tokens = new LinkedList<DecompoundToken>();
-        this.decomp = decomp;
+        this.holder = holder;
+        this.useCache = useCache;
+        this.prefilter = prefilter;
+        this.meter = budget != null ? budget.meter() : null;
+        this.stats = stats;
+        takeGeneration();
     }
 
     @Override
     public final boolean incrementToken() throws IOException {
-        if (!tokens.isEmpty()) {
-            assert current != null;
-            DecompoundToken token = tokens.removeFirst();
-            restoreState(current);
-            termAtt.setEmpty().append(token.txt);
-            offsetAtt.setOffset(token.startOffset, token.endOffset);
+        if (part < parts.size()) {
+            current.restore(this);
+            int startOff = offsetAtt.startOffset();
+            int endOff = offsetAtt.endOffset();
+            int length = parts.length(part);
+            // if the offsets do not match the term, e.g. after a char filter, all parts get the term offsets
+            if (endOff - startOff == termAtt.length()) {
+                offsetAtt.setOffset(partOffset, partOffset + length);
+            }
+            termAtt.copyBuffer(parts.chars(), parts.offset(part), length);
             posIncAtt.setPositionIncrement(0);
+            partOffset += length;
+            part++;
             return true;
         }
         if (input.incrementToken()) {
             decompound();
-            if (!tokens.isEmpty()) {
-                current = captureState();
+            if (parts.size() > 0) {
+                current.save(this);
             }
             return true;
         } else {
@@ -53,39 +146,41 @@ public class DecompoundTokenFilter extends TokenFilter {
     }
 
     protected void decompound() {
-        int start = offsetAtt.startOffset();
-        CharSequence term = new String(termAtt.buffer(), 0, termAtt.length());
-        for (String s : decomp.decompound(term.toString())) {
-            int len = s.length();
-            tokens.add(new DecompoundToken(s, start, len));
-            start += len;
+        long start = stats != null ? System.nanoTime() : 0L;
+        if ((prefilter != null && !prefilter.accept(termAtt.buffer(), 0, termAtt.length()))
+                || (meter != null && !meter.spend(1L))) {
+            parts.clear();
+        } else if (cache != null) {
+            cache.decompound(termAtt.buffer(), 0, termAtt.length(), parts);
+        } else {
+            decomp.decompound(termAtt.buffer(), 0, termAtt.length(), parts);
+        }
+        part = 0;
+        partOffset = offsetAtt.startOffset();
+        if (stats != null) {
+            // a word which is not split is emitted again as its only part
+            stats.token(System.nanoTime() - start, parts.size() > 1, 1 + parts.size());
         }
     }
 
     @Override
     public void reset() throws IOException {
         super.reset();
-        tokens.clear();
-        current = null;
+        takeGeneration();
+        if (meter != null) {
+            meter.reset();
+        }
+        parts.clear();
+        part = 0;
+        current.reset(this);
     }
 
-    protected class DecompoundToken {
-
-        public final CharSequence txt;
-        public final int startOffset;
-        public final int endOffset;
-
-        public DecompoundToken(CharSequence txt, int offset, int length) {
-            this.txt = txt;
-            int startOff = DecompoundTokenFilter.this.offsetAtt.startOffset();
-            int endOff = DecompoundTokenFilter.this.offsetAtt.endOffset();
-            if (endOff - startOff != DecompoundTokenFilter.this.termAtt.length()) {
-                this.startOffset = startOff;
-                this.endOffset = endOff;
-            } else {
-                this.startOffset = offset;
-                this.endOffset = offset + length;
-            }
-        }
+    /**
+     * Take the current generation of the decompounder, for the stream until the next reset.
+     */
+    private void takeGeneration() {
+        DecompounderHolder.Generation generation = holder.current();
+        this.decomp = generation.decompounder();
+        this.cache = useCache ? generation.useCache() : null;
     }
 }
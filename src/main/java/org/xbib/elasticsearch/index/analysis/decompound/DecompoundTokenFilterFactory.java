@@ -2,43 +2,176 @@ package org.xbib.elasticsearch.index.analysis.decompound;
 
 import org.apache.lucene.analysis.TokenStream;
 import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.ElasticsearchIllegalStateException;
+import org.elasticsearch.common.cache.CacheStats;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.inject.assistedinject.Assisted;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.index.Index;
 import org.elasticsearch.index.analysis.AbstractTokenFilterFactory;
+import org.elasticsearch.index.analysis.Analysis;
 import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
+import org.xbib.elasticsearch.indices.analysis.stats.TokenFilterStatsService;
+import org.xbib.elasticsearch.indices.analysis.decompound.DecompounderService;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
+/**
+ * Creates decompound token filters. With the setting <code>lazy</code>, the decompounder is loaded in the
+ * background and the first filter created waits for it. With the setting <code>cache</code> (default false),
+ * the filters use the result cache of the decompounder.
+ */
 public class DecompoundTokenFilterFactory extends AbstractTokenFilterFactory {
 
-    private final Decompounder decompounder;
+    private final Settings settings;
+
+    private final Future<DecompounderHolder> loading;
+
+    private volatile DecompounderHolder decompounder;
+
+    private final boolean cache;
+
+    private final DecompoundPrefilter prefilter;
+
+    private final TokenBudget budget;
+
+    private final TokenFilterStats stats;
 
     @Inject
     public DecompoundTokenFilterFactory(Index index,
                                         @IndexSettings Settings indexSettings, Environment env,
+                                        DecompounderService decompounderService,
+                                        TokenFilterStatsService statsService,
                                         @Assisted String name, @Assisted Settings settings) {
         super(index, indexSettings, name, settings);
-        this.decompounder = createDecompounder(env, settings);
+        this.settings = settings;
+        if (settings.getAsBoolean("lazy", false)) {
+            this.loading = decompounderService.acquireLazily(index, env, settings);
+        } else {
+            this.loading = null;
+            this.decompounder = createDecompounder(env, decompounderService, settings);
+        }
+        this.cache = settings.getAsBoolean("cache", false);
+        this.prefilter = createPrefilter(env, settings);
+        this.budget = TokenBudget.create(index, name, settings);
+        this.stats = statsService.register(index, name, "decompound", new TokenFilterStats.Resources() {
+            @Override
+            public long sizeInBytes() {
+                DecompounderHolder holder = loaded();
+                return holder != null ? holder.current().decompounder().sizeInBytes() : 0L;
+            }
+
+            @Override
+            public CacheStats cacheStats() {
+                // the cache is shared by the filters using it, a filter without cache reports none
+                DecompounderHolder holder = loaded();
+                if (!cache || holder == null) {
+                    return null;
+                }
+                DecompoundCache resultCache = holder.current().cache();
+                return resultCache != null ? resultCache.stats() : null;
+            }
+
+            @Override
+            public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+                DecompounderHolder holder = loaded();
+                if (holder != null) {
+                    DecompounderHolder.Generation generation = holder.current();
+                    builder.field("generation", generation.generation());
+                    builder.field("load_millis", generation.loadMillis());
+                }
+                if (prefilter != null) {
+                    builder.startObject("prefilter");
+                    builder.field("accepted", prefilter.accepted());
+                    builder.field("skipped", prefilter.skipped());
+                    builder.endObject();
+                }
+                return builder;
+            }
+        }, budget);
     }
 
     @Override
     public TokenStream create(TokenStream tokenStream) {
-        return new DecompoundTokenFilter(tokenStream, decompounder);
+        return new DecompoundTokenFilter(tokenStream, decompounder(), cache, prefilter, budget, stats);
+    }
+
+    /**
+     * @return the budget of terms decompounded per stream, or null if no budget is configured
+     */
+    public TokenBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return the stats of the filter
+     */
+    public TokenFilterStats getStats() {
+        return stats;
+    }
+
+    private DecompounderHolder decompounder() {
+        DecompounderHolder holder = decompounder;
+        if (holder == null) {
+            try {
+                holder = loading.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ElasticsearchIllegalStateException("interrupted while loading decompounder", e);
+            } catch (CancellationException e) {
+                throw new ElasticsearchIllegalStateException("index closed while loading decompounder", e);
+            } catch (ExecutionException e) {
+                throw new ElasticsearchIllegalArgumentException("decompounder resources in settings not found: "
+                        + settings, e.getCause());
+            }
+            decompounder = holder;
+        }
+        return holder;
+    }
+
+    /**
+     * @return the decompounder, or null while a lazy decompounder is loading or if it failed to load
+     */
+    private DecompounderHolder loaded() {
+        DecompounderHolder holder = decompounder;
+        if (holder == null && loading != null && loading.isDone() && !loading.isCancelled()) {
+            try {
+                holder = loading.get();
+                decompounder = holder;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // reported by the first filter created
+            }
+        }
+        return holder;
+    }
+
+    /**
+     * @return the prefilter, or null if no prefilter is configured
+     */
+    public DecompoundPrefilter getPrefilter() {
+        return prefilter;
+    }
+
+    private DecompoundPrefilter createPrefilter(Environment env, Settings settings) {
+        DecompoundPrefilter prefilter = new DecompoundPrefilter(
+                settings.getAsInt("prefilter.min_length", 0),
+                settings.getAsBoolean("prefilter.letters_only", false),
+                Analysis.getWordSet(env, settings, "prefilter.words", version));
+        return prefilter.isEnabled() ? prefilter : null;
     }
 
-    private Decompounder createDecompounder(Environment env, Settings settings) {
+    private DecompounderHolder createDecompounder(Environment env, DecompounderService decompounderService, Settings settings) {
         try {
-            String forward = settings.get("forward", "/decompound/kompVVic.tree");
-            String backward = settings.get("backward", "/decompound/kompVHic.tree");
-            String reduce = settings.get("reduce", "/decompound/grfExt.tree");
-            double threshold = settings.getAsDouble("threshold", 0.51);
-            return new Decompounder(env.resolveConfig(forward).openStream(),
-                    env.resolveConfig(backward).openStream(),
-                    env.resolveConfig(reduce).openStream(),
-                    threshold);
+            return decompounderService.acquire(index, env, settings);
         } catch (ClassNotFoundException e) {
             throw new ElasticsearchIllegalArgumentException("decompounder resources in settings not found: " + settings, e);
         } catch (IOException e) {
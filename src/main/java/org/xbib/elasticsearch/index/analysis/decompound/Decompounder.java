@@ -2,213 +2,434 @@ package org.xbib.elasticsearch.index.analysis.decompound;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.StringTokenizer;
 
 public class Decompounder {
 
-    private CompactPatriciaTrie kompvvTree;
-    private CompactPatriciaTrie kompvhTree;
-    private CompactPatriciaTrie grfTree;
+    public static final int DEFAULT_MAX_DEPTH = 16;
 
+    public static final int DEFAULT_MAX_WORD_LENGTH = 128;
+
+    public static final int DEFAULT_MAX_PARTS = 32;
+
+    private static final int SPLIT = 0;
+
+    private static final int DONE = 1;
+
+    private PatriciaTrie kompvvTree;
+    private PatriciaTrie kompvhTree;
+    private PatriciaTrie grfTree;
+
+    private Splits kompvvSplits;
+    private Splits kompvhSplits;
+    private Splits grfSplits;
+
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int maxWordLength = DEFAULT_MAX_WORD_LENGTH;
+    private int maxParts = DEFAULT_MAX_PARTS;
+
+    private DecompoundDictionary dictionary;
+
+    /**
+     * Create a decompounder from streams of either serialized {@link CompactPatriciaTrie} trees
+     * or compiled {@link CompiledPatriciaTrie} tries.
+     */
     public Decompounder(InputStream kompvv, InputStream kompvh, InputStream gfred, double threshold)
             throws IOException, ClassNotFoundException {
-        kompvvTree = new CompactPatriciaTrie();
-        kompvvTree.load(kompvv);
+        this(PatriciaTrie.load(kompvv), PatriciaTrie.load(kompvh), PatriciaTrie.load(gfred), threshold);
+    }
+
+    public Decompounder(PatriciaTrie kompvv, PatriciaTrie kompvh, PatriciaTrie gfred, double threshold) {
+        this(kompvv, kompvh, gfred, threshold, DEFAULT_MAX_DEPTH, DEFAULT_MAX_WORD_LENGTH, DEFAULT_MAX_PARTS);
+    }
+
+    /**
+     * @param maxDepth      the maximum depth of splits, parts at this depth are not split further
+     * @param maxWordLength the maximum length of words to decompound, longer words are kept
+     * @param maxParts      the maximum number of parts of a word
+     */
+    public Decompounder(PatriciaTrie kompvv, PatriciaTrie kompvh, PatriciaTrie gfred, double threshold,
+                        int maxDepth, int maxWordLength, int maxParts) {
+        this(kompvv, kompvh, gfred, threshold, maxDepth, maxWordLength, maxParts, null);
+    }
+
+    /**
+     * @param maxDepth      the maximum depth of splits, parts at this depth are not split further
+     * @param maxWordLength the maximum length of words to decompound, longer words are kept
+     * @param maxParts      the maximum number of parts of a word
+     * @param dictionary    words with fixed parts, looked up before the tries, or null
+     */
+    public Decompounder(PatriciaTrie kompvv, PatriciaTrie kompvh, PatriciaTrie gfred, double threshold,
+                        int maxDepth, int maxWordLength, int maxParts, DecompoundDictionary dictionary) {
+        this(kompvv, kompvh, gfred);
+        this.dictionary = dictionary;
+        this.maxDepth = maxDepth;
+        this.maxWordLength = maxWordLength;
+        this.maxParts = Math.max(1, maxParts);
         kompvvTree.setIgnoreCase(true);
         kompvvTree.setThreshold(threshold);
-        kompvhTree = new CompactPatriciaTrie();
-        kompvhTree.load(kompvh);
         kompvhTree.setIgnoreCase(true);
         kompvhTree.setThreshold(threshold);
-        grfTree = new CompactPatriciaTrie();
-        grfTree.load(gfred);
         grfTree.setIgnoreCase(true);
         grfTree.setThreshold(threshold); // previous value = 0.46
     }
 
     public Decompounder(CompactPatriciaTrie kompvv, CompactPatriciaTrie kompvh, CompactPatriciaTrie gfred) {
+        this(CompiledPatriciaTrie.compile(kompvv), CompiledPatriciaTrie.compile(kompvh),
+                CompiledPatriciaTrie.compile(gfred));
+    }
+
+    /**
+     * For engines which split words without the tries.
+     *
+     * @param maxWordLength the maximum length of words to decompound, longer words are kept
+     * @param dictionary    words with fixed parts, looked up before the engine, or null
+     */
+    protected Decompounder(int maxWordLength, DecompoundDictionary dictionary) {
+        this.maxWordLength = maxWordLength;
+        this.dictionary = dictionary;
+    }
+
+    public Decompounder(PatriciaTrie kompvv, PatriciaTrie kompvh, PatriciaTrie gfred) {
         kompvvTree = kompvv;
         kompvhTree = kompvh;
         grfTree = gfred;
+        kompvvSplits = new Splits(kompvv, false);
+        kompvhSplits = new Splits(kompvh, false);
+        grfSplits = new Splits(gfred, true);
     }
 
-    private String reverse(String torev) {
-        String ret = "";
-        for (int i = torev.length(); i > 0; i--) {
-            ret += torev.substring(i - 1, i);
-        }
-        return ret;
+    /**
+     * Decompound a word.
+     *
+     * @param word the word
+     * @return the parts, or the base form of the word if it is not decompounded
+     */
+    public List<String> decompound(String word) {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        decompound(word.toCharArray(), 0, word.length(), parts);
+        return parts.toList();
     }
 
-    public List<String> decompound(String word) {
-        word = reduceToBaseForm(word);
-        List<String> list = new ArrayList<String>();
-        String classvv = kompvvTree.classify(word + "<");
-        String classvh = kompvhTree.classify(reverse(word) + "<");
-        StringBuilder numStrvv = new StringBuilder();
-        StringBuilder numStrvh = new StringBuilder();
-        StringBuilder suffixvv = new StringBuilder();
-        StringBuilder suffixvh = new StringBuilder();
-        String vvpart1 = "";
-        String vhpart1 = "";
-        String vvpart2 = "";
-        String vhpart2 = "";
-        int numvv = 0;
-        int numvh = 0;
-        boolean vhOk = true;
-        boolean vvOk = true;
-        if (classvv.equals("undecided")) {
-            vvOk = false;
+    /**
+     * Decompound a word in a character buffer. The word is neither copied into strings nor
+     * reversed, the tries are read over the buffer and the parts are written to a reusable buffer.
+     * <p/>
+     * Words in the dictionary get their parts from the dictionary, without a trie lookup.
+     * Other words are split iteratively, pending words are kept on a stack in the buffer. Words seen
+     * before within the same word are not split again, their parts are copied from the memo.
+     * Words longer than the maximum word length are not decompounded, words at the maximum depth
+     * are not split further, and no split is made which would exceed the maximum number of parts.
+     *
+     * @param word   the buffer
+     * @param offset the start of the word in the buffer
+     * @param length the length of the word
+     * @param parts  the buffer receiving the parts, cleared before use
+     */
+    public void decompound(char[] word, int offset, int length, DecompoundBuffer parts) {
+        if (dictionary != null && dictionary.decompound(word, offset, length, parts)) {
+            return;
         }
-        if (classvh.equals("undecided")) {
-            vhOk = false;
+        parts.clear();
+        if (length > maxWordLength) {
+            parts.add(word, offset, length);
+            return;
         }
-        if (vvOk) {
-            for (int i = 0; i < classvv.length(); i++) {
-                char c = classvv.charAt(i);
-                if ((c <= '9') && (c >= '0')) {
-                    numStrvv.append(c);
-                } else {
-                    suffixvv.append(c);
+        split(word, offset, length, parts);
+    }
+
+    /**
+     * Split a word which is neither in the dictionary nor too long.
+     *
+     * @param word   the buffer
+     * @param offset the start of the word in the buffer
+     * @param length the length of the word
+     * @param parts  the empty buffer receiving the parts
+     */
+    protected void split(char[] word, int offset, int length, DecompoundBuffer parts) {
+        int start = parts.push(length);
+        System.arraycopy(word, offset, parts.work(), start, length);
+        push(parts, SPLIT, start, length, 0, 0, 0);
+        int pending = 1;
+        // count words emitted because of a limit, subtrees without limits are memorized
+        int limits = 0;
+        int f;
+        while ((f = parts.popFrame()) >= 0) {
+            int[] frames = parts.frames();
+            int s = frames[f + 1];
+            int l = frames[f + 2];
+            int depth = frames[f + 3];
+            if (frames[f] == DONE) {
+                if (frames[f + 5] == limits) {
+                    memorize(parts, s, l, depth, frames[f + 4], parts.size() - frames[f + 4]);
                 }
+                continue;
             }
-        }
-        if (vhOk) {
-            for (int i = 0; i < classvh.length(); i++) {
-                char c = classvh.charAt(i);
-                if ((c <= '9') && (c >= '0')) {
-                    numStrvh.append(c);
-                } else {
-                    suffixvh.append(c);
+            pending--;
+            if (recall(parts, s, l, depth, pending)) {
+                continue;
+            }
+            if (depth >= maxDepth) {
+                parts.add(parts.work(), s, l);
+                limits++;
+                continue;
+            }
+            int k = split(parts, s, l);
+            int[] split = parts.split();
+            if (k == 1) {
+                parts.add(parts.work(), split[0], split[1]);
+                memorize(parts, s, l, depth, parts.size() - 1, 1);
+            } else if (parts.size() + pending + k > maxParts) {
+                // the base form
+                parts.add(parts.work(), split[8], split[9]);
+                limits++;
+            } else {
+                push(parts, DONE, s, l, depth, parts.size(), limits);
+                for (int i = k - 1; i >= 0; i--) {
+                    push(parts, SPLIT, split[2 * i], split[2 * i + 1], depth + 1, 0, 0);
                 }
+                pending += k;
             }
         }
+    }
 
-        if (vvOk) {
-            numvv = Integer.parseInt(numStrvv.toString());
-        }
-        if (vhOk) {
-            numvh = Integer.parseInt(numStrvh.toString());
-        }
-
-        if (vvOk) {
-            if (numvv >= word.length()) {
-                vvOk = false;
-            }
+    /**
+     * Reduce a word in the scratch space to its base form and split it.
+     *
+     * @return the number of parts, the start and length of the parts are in {@link DecompoundBuffer#split()},
+     * followed by the start and length of the base form
+     */
+    private int split(DecompoundBuffer parts, int start, int length) {
+        int b = reduceToBaseForm(parts, start, length);
+        int n = parts.top() - b;
+        char[] w = parts.work();
+        int vv = kompvvTree.classify(w, b, n, false, true);
+        int vh = kompvhTree.classify(w, b, n, true, true);
+        boolean vvOk = vv >= 0 && kompvvSplits.cut[vv] >= 0;
+        boolean vhOk = vh >= 0 && kompvhSplits.cut[vh] >= 0;
+        int numvv = vvOk ? kompvvSplits.cut[vv] : 0;
+        int numvh = vhOk ? kompvhSplits.cut[vh] : 0;
+        if (vvOk && numvv >= n) {
+            vvOk = false;
         }
-
-        if (vhOk) {
-            if (numvh >= word.length()) {
-                vhOk = false;
-            }
+        if (vhOk && numvh >= n) {
+            vhOk = false;
         }
-
+        char[] sfxvv = vvOk ? kompvvSplits.suffix[vv] : null;
+        char[] sfxvh = vhOk ? kompvhSplits.suffix[vh] : null;
+        int suffixvv = vvOk ? sfxvv.length : 0;
+        int suffixvh = vhOk ? sfxvh.length : 0;
         if (vvOk) {
-            for (int i = 0; i < suffixvv.length(); i++) {
-                if (word.length() > (numvv + i)) {
-                    if (suffixvv.charAt(i) != word.charAt(numvv + i)) {
-                        vvOk = false;
-                    }
-                } else {
+            for (int j = 0; j < suffixvv; j++) {
+                if (n <= numvv + j || sfxvv[j] != w[b + numvv + j]) {
                     vvOk = false;
                 }
             }
         }
         if (vhOk) {
-            for (int i = 0; i < suffixvh.length(); i++) {
-                if (suffixvh.charAt(i) != word.charAt(numvh + 1 + i)) {
+            // a mismatch of the backward suffix rejects the forward split, as it always did
+            for (int j = 0; j < suffixvh; j++) {
+                if (n <= numvh + 1 + j || sfxvh[j] != w[b + numvh + 1 + j]) {
                     vvOk = false;
                 }
             }
         }
-        if (vvOk) {
-            vvpart1 = word.substring(0, numvv);
-            vvpart2 = word.substring(numvv + suffixvv.length(), word.length());
-            if (vvpart2.length() <= 3) {
-                vvOk = false;
-            }
+        int[] split = parts.split();
+        int k = 0;
+        // part 1 is a prefix, part 2 a suffix of the word, so parts are equal if their lengths are
+        int vvpart1 = numvv;
+        int vvpart2 = n - numvv - suffixvv;
+        if (vvOk && vvpart2 <= 3) {
+            vvOk = false;
         }
-        if (vhOk) {
-            vhpart1 = word.substring(0, word.length() - numvh);
-            vhpart2 = word.substring(word.length() - (numvh + suffixvh.length()), word.length());
-            if (vhpart1.length() <= 3) {
-                vhOk = false;
-            }
-
+        int vhpart1 = n - numvh;
+        int vhpart2 = numvh + suffixvh;
+        if (vhOk && (vhpart1 <= 3 || vhpart2 > n)) {
+            vhOk = false;
         }
         if (vvOk && vhOk) {
-            if (vvpart1.equals(vhpart1)) {
-                list.add(vvpart1);
-                if (vhpart2.length() < vvpart2.length()) {
-                    list.add(vhpart2);
-                } else if (vhpart2.length() > vvpart2.length()) {
-                    list.add(vvpart2);
-                }
-            } else if ((vhpart1.length() - vvpart1.length()) < 3) {
-                list.add(vvpart1);
-                if (vhpart2.length() < vvpart2.length()) {
-                    list.add(vhpart2);
-                } else if (vhpart2.length() > vvpart2.length()) {
-                    list.add(vvpart2);
+            k = span(split, k, b, vvpart1);
+            if (vvpart1 == vhpart1 || (vhpart1 - vvpart1) < 3) {
+                if (vhpart2 < vvpart2) {
+                    k = span(split, k, b + n - vhpart2, vhpart2);
+                } else if (vhpart2 > vvpart2) {
+                    k = span(split, k, b + n - vvpart2, vvpart2);
                 }
             } else {
-                list.add(vvpart1);
-                list.add(word.substring(vvpart1.length() + suffixvv.length(), word.length() - numvh));
-                list.add(vhpart2);
+                int middle = vvpart1 + suffixvv;
+                if (middle <= vhpart1) {
+                    k = span(split, k, b + middle, vhpart1 - middle);
+                }
+                k = span(split, k, b + n - vhpart2, vhpart2);
             }
-            if (vvpart2.equals(vhpart2)) {
-                list.add(vvpart2);
+            if (vvpart2 == vhpart2) {
+                k = span(split, k, b + n - vvpart2, vvpart2);
             }
-
-        } else if (vvOk && !vhOk) {
-            list.add(vvpart1);
-            list.add(vvpart2);
-        } else if (vhOk && !vvOk) {
-            list.add(vhpart1);
-            list.add(vhpart2);
+        } else if (vvOk) {
+            k = span(split, k, b, vvpart1);
+            k = span(split, k, b + n - vvpart2, vvpart2);
+        } else if (vhOk) {
+            k = span(split, k, b, vhpart1);
+            k = span(split, k, b + n - vhpart2, vhpart2);
         } else {
-            list.add(word);
+            k = span(split, k, b, n);
+        }
+        split[8] = b;
+        split[9] = n;
+        return k;
+    }
+
+    private static int span(int[] split, int k, int start, int length) {
+        split[2 * k] = start;
+        split[2 * k + 1] = length;
+        return k + 1;
+    }
+
+    private static void push(DecompoundBuffer parts, int kind, int start, int length, int depth,
+                             int firstPart, int limits) {
+        int f = parts.pushFrame();
+        int[] frames = parts.frames();
+        frames[f] = kind;
+        frames[f + 1] = start;
+        frames[f + 2] = length;
+        frames[f + 3] = depth;
+        frames[f + 4] = firstPart;
+        frames[f + 5] = limits;
+    }
+
+    private static void memorize(DecompoundBuffer parts, int start, int length, int depth, int firstPart, int count) {
+        int m = parts.pushMemo();
+        int[] memo = parts.memo();
+        memo[m] = start;
+        memo[m + 1] = length;
+        memo[m + 2] = depth;
+        memo[m + 3] = firstPart;
+        memo[m + 4] = count;
+    }
+
+    /**
+     * Copy the parts of a word from the memo. A memorized word is reused at its depth or above,
+     * where it can not hit the maximum depth, if the maximum number of parts is not exceeded.
+     *
+     * @return true if the word was found
+     */
+    private boolean recall(DecompoundBuffer parts, int start, int length, int depth, int pending) {
+        int[] memo = parts.memo();
+        char[] w = parts.work();
+        for (int m = 0; m < parts.memoLength(); m += DecompoundBuffer.MEMO) {
+            if (memo[m + 1] != length || memo[m + 2] < depth || parts.size() + pending + memo[m + 4] > maxParts) {
+                continue;
+            }
+            int other = memo[m];
+            int i = 0;
+            while (i < length && w[start + i] == w[other + i]) {
+                i++;
+            }
+            if (i == length) {
+                int first = memo[m + 3];
+                int end = first + memo[m + 4];
+                for (int p = first; p < end; p++) {
+                    parts.add(parts.chars(), parts.offset(p), parts.length(p));
+                }
+                return true;
+            }
         }
-        List<String> retvec2 = new ArrayList();
-        List<String> l;
-        if (list.size() > 1) {
-            for (String s : list) {
-                l = decompound(s);
-                retvec2.addAll(l);
+        return false;
+    }
+
+    /**
+     * @return the size of the tables of the tries and of the dictionary in bytes
+     */
+    public long sizeInBytes() {
+        long size = dictionary != null ? dictionary.sizeInBytes() : 0L;
+        for (PatriciaTrie trie : new PatriciaTrie[]{kompvvTree, kompvhTree, grfTree}) {
+            if (trie != null) {
+                size += trie.getTableSize();
             }
-        } else {
-            retvec2 = list;
         }
-        return retvec2;
+        return size;
     }
 
+    /**
+     * Reduce a word to its base form.
+     *
+     * @param word the word
+     * @return the base form
+     */
     public String reduceToBaseForm(String word) {
-        String result = word;
-        String baseForm = grfTree.classify(reverse(word));
-        if (!baseForm.equals("undecided")) {
-            StringTokenizer st = new StringTokenizer(baseForm, ",");
-            baseForm = st.nextToken();
-            StringBuilder numStr = new StringBuilder();
-            StringBuilder suffix = new StringBuilder();
-            for (int i = 0; i < baseForm.length(); i++) {
-                char c = baseForm.charAt(i);
-                if ((c <= '9') && (c >= '0')) {
-                    numStr.append(c);
-                } else {
-                    suffix.append(c);
+        DecompoundBuffer buffer = new DecompoundBuffer();
+        int start = buffer.push(word.length());
+        word.getChars(0, word.length(), buffer.work(), start);
+        int b = reduceToBaseForm(buffer, start, word.length());
+        return new String(buffer.work(), b, buffer.top() - b);
+    }
+
+    /**
+     * Push the base form of a word in the scratch space on top of the scratch space.
+     *
+     * @return the start of the base form, which ends at the top of the scratch space
+     */
+    private int reduceToBaseForm(DecompoundBuffer parts, int start, int length) {
+        int id = grfTree.classify(parts.work(), start, length, true, false);
+        if (id < 0 || grfSplits.cut[id] < 0) {
+            int b = parts.push(length);
+            System.arraycopy(parts.work(), start, parts.work(), b, length);
+            return b;
+        }
+        int cut = Math.min(grfSplits.cut[id], length);
+        char[] suffix = grfSplits.suffix[id];
+        int b = parts.push(length - cut + suffix.length);
+        char[] w = parts.work();
+        System.arraycopy(w, start, w, b, length - cut);
+        System.arraycopy(suffix, 0, w, b + length - cut, suffix.length);
+        return b;
+    }
+
+    /**
+     * The splits of the classes of a trie, parsed once. A class is a cut position formed by
+     * its digits and a suffix formed by the other characters. Base form classes are comma separated
+     * lists of which only the first counts.
+     */
+    private static class Splits {
+
+        /**
+         * The cut position of a class, -1 if the class has no digits
+         */
+        final int[] cut;
+
+        final char[][] suffix;
+
+        Splits(PatriciaTrie trie, boolean first) {
+            int n = trie.getClassCount();
+            cut = new int[n];
+            suffix = new char[n][];
+            for (int id = 0; id < n; id++) {
+                String cl = trie.getClassName(id);
+                int start = 0;
+                int end = cl.length();
+                if (first) {
+                    while (start < end && cl.charAt(start) == ',') {
+                        start++;
+                    }
+                    int comma = cl.indexOf(',', start);
+                    if (comma >= 0) {
+                        end = comma;
+                    }
                 }
-            }
-            if (numStr.length() > 0) {
-                int cutpos = Integer.parseInt(numStr.toString());
-                if (cutpos > result.length()) {
-                    cutpos = result.length();
+                long num = -1L;
+                StringBuilder sb = new StringBuilder();
+                for (int i = start; i < end; i++) {
+                    char c = cl.charAt(i);
+                    if ((c <= '9') && (c >= '0')) {
+                        num = num < 0L ? c - '0' : Math.min(num * 10 + c - '0', Integer.MAX_VALUE + 1L);
+                    } else {
+                        sb.append(c);
+                    }
                 }
-                result = result.substring(0, result.length() - cutpos) + suffix;
+                // classes without a number, or with a number out of range, are not used for splitting
+                cut[id] = num > Integer.MAX_VALUE ? -1 : (int) num;
+                suffix[id] = sb.toString().toCharArray();
             }
         }
-        return result;
     }
-
 }
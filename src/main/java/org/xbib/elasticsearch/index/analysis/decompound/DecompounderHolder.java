@@ -0,0 +1,139 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+/**
+ * Holds the current generation of a reloadable decompounder.
+ * <p/>
+ * A new generation is built aside and swapped in atomically. Readers take the current
+ * generation once, e.g. when a token stream is reset, and keep using it, so token streams
+ * in flight are not affected by a reload.
+ * <p/>
+ * The result cache of a generation may be created on first use by a {@link CacheFactory}, so
+ * generations of decompounders used by no caching filter do not allocate a cache.
+ */
+public class DecompounderHolder {
+
+    private volatile Generation current;
+
+    /**
+     * @param decompounder the decompounder
+     * @param cache        the result cache of the decompounder, or null
+     */
+    public DecompounderHolder(Decompounder decompounder, DecompoundCache cache) {
+        this.current = new Generation(decompounder, cache, null, 0L, 0L);
+    }
+
+    /**
+     * @param decompounder the decompounder
+     * @param cacheFactory creates the result cache on first use, or null for no cache
+     * @param loadMillis   the time it took to load the decompounder
+     */
+    public DecompounderHolder(Decompounder decompounder, CacheFactory cacheFactory, long loadMillis) {
+        this.current = new Generation(decompounder, null, cacheFactory, 0L, loadMillis);
+    }
+
+    /**
+     * @return the current generation
+     */
+    public Generation current() {
+        return current;
+    }
+
+    /**
+     * Swap in a new generation, with a result cache created on first use.
+     *
+     * @param decompounder the new decompounder
+     * @param cacheFactory creates the result cache of the new decompounder on first use, or null for no cache
+     * @param loadMillis   the time it took to load the new decompounder
+     * @return the new generation
+     */
+    public synchronized Generation swap(Decompounder decompounder, CacheFactory cacheFactory, long loadMillis) {
+        Generation generation = new Generation(decompounder, null, cacheFactory, current.generation() + 1, loadMillis);
+        this.current = generation;
+        return generation;
+    }
+
+    /**
+     * Creates the result cache of a decompounder.
+     */
+    public interface CacheFactory {
+
+        DecompoundCache create(Decompounder decompounder);
+    }
+
+    /**
+     * A decompounder with its result cache.
+     */
+    public static class Generation {
+
+        private final Decompounder decompounder;
+
+        private final CacheFactory cacheFactory;
+
+        private volatile DecompoundCache cache;
+
+        private final long generation;
+
+        private final long loadMillis;
+
+        private final long timestamp;
+
+        Generation(Decompounder decompounder, DecompoundCache cache, CacheFactory cacheFactory,
+                   long generation, long loadMillis) {
+            this.decompounder = decompounder;
+            this.cache = cache;
+            this.cacheFactory = cacheFactory;
+            this.generation = generation;
+            this.loadMillis = loadMillis;
+            this.timestamp = System.currentTimeMillis();
+        }
+
+        public Decompounder decompounder() {
+            return decompounder;
+        }
+
+        /**
+         * @return the result cache, or null if there is no cache or it has not been used yet
+         */
+        public DecompoundCache cache() {
+            return cache;
+        }
+
+        /**
+         * @return the result cache, created on first use, or null if there is no cache
+         */
+        public DecompoundCache useCache() {
+            DecompoundCache cache = this.cache;
+            if (cache == null && cacheFactory != null) {
+                synchronized (this) {
+                    cache = this.cache;
+                    if (cache == null) {
+                        cache = cacheFactory.create(decompounder);
+                        this.cache = cache;
+                    }
+                }
+            }
+            return cache;
+        }
+
+        /**
+         * @return the generation, counting the reloads
+         */
+        public long generation() {
+            return generation;
+        }
+
+        /**
+         * @return the time in milliseconds it took to load this generation
+         */
+        public long loadMillis() {
+            return loadMillis;
+        }
+
+        /**
+         * @return the time this generation was swapped in
+         */
+        public long timestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.AbstractIndexComponent;
+import org.elasticsearch.index.CloseableIndexComponent;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.index.settings.IndexSettings;
+import org.xbib.elasticsearch.indices.analysis.decompound.DecompounderService;
+
+/**
+ * Releases the decompounders of an index when the index is closed.
+ */
+public class DecompounderIndexComponent extends AbstractIndexComponent implements CloseableIndexComponent {
+
+    private final DecompounderService decompounderService;
+
+    @Inject
+    public DecompounderIndexComponent(Index index, @IndexSettings Settings indexSettings,
+                                      DecompounderService decompounderService) {
+        super(index, indexSettings);
+        this.decompounderService = decompounderService;
+    }
+
+    @Override
+    public void close() throws ElasticsearchException {
+        decompounderService.release(index);
+    }
+}
@@ -0,0 +1,221 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A decompounder splitting words into lexemes of a lexicon, instead of classifying them with tries.
+ * <p/>
+ * The lexicon is compiled into an {@link FST} of lower case word forms. A word is split into the
+ * fewest parts which are lexemes of at least the minimum part length, each but the last optionally
+ * followed by a linking element, the "Fugenelement". Of splits with the same number of parts,
+ * the one with the fewest linking elements wins, then the one found first, which is the one with
+ * the longest last part. Linking elements stay with the preceding part, so the parts concatenate
+ * to the word. Words without a split into at least two parts are kept.
+ * <p/>
+ * The split is found by dynamic programming over the positions of the word. From each reachable
+ * position, the FST is walked for at most the length of the longest lexeme, so the cost of a word
+ * is bounded by its length times the length of the longest lexeme.
+ */
+public class LexiconDecompounder extends Decompounder {
+
+    public static final String[] DEFAULT_LINKING_ELEMENTS = {"s", "es", "n", "en", "er", "e", "ens"};
+
+    public static final int DEFAULT_MIN_PART_LENGTH = 3;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FST<Object> lexicon;
+
+    private final int size;
+
+    private final char[][] linkingElements;
+
+    private final int minPartLength;
+
+    private volatile long lexiconSize = -1L;
+
+    /**
+     * @param lexemes         the word forms of the lexicon
+     * @param linkingElements the linking elements allowed between parts
+     * @param minPartLength   the minimum length of a lexeme in a split
+     * @param maxWordLength   the maximum length of words to decompound, longer words are kept
+     * @param dictionary      words with fixed parts, looked up before the lexicon, or null
+     */
+    public LexiconDecompounder(Collection<String> lexemes, String[] linkingElements, int minPartLength,
+                               int maxWordLength, DecompoundDictionary dictionary) throws IOException {
+        super(maxWordLength, dictionary);
+        // the FST needs the words sorted by UTF-16 code units
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (String lexeme : lexemes) {
+            if (!lexeme.isEmpty()) {
+                sorted.add(lexeme.toLowerCase());
+            }
+        }
+        NoOutputs outputs = NoOutputs.getSingleton();
+        Builder<Object> builder = new Builder<Object>(FST.INPUT_TYPE.BYTE2, outputs);
+        IntsRef scratch = new IntsRef();
+        for (String lexeme : sorted) {
+            builder.add(Util.toUTF16(lexeme, scratch), outputs.getNoOutput());
+        }
+        this.lexicon = builder.finish();
+        this.size = sorted.size();
+        this.linkingElements = new char[linkingElements.length][];
+        for (int i = 0; i < linkingElements.length; i++) {
+            this.linkingElements[i] = linkingElements[i].toLowerCase().toCharArray();
+        }
+        this.minPartLength = Math.max(1, minPartLength);
+    }
+
+    /**
+     * Load a lexicon of one word form per line. Empty lines and lines starting with <code>#</code>
+     * are skipped. The stream is closed.
+     */
+    public static LexiconDecompounder load(InputStream in, String[] linkingElements, int minPartLength,
+                                           int maxWordLength, DecompoundDictionary dictionary) throws IOException {
+        List<String> lexemes = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    lexemes.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return new LexiconDecompounder(lexemes, linkingElements, minPartLength, maxWordLength, dictionary);
+    }
+
+    /**
+     * @return the number of word forms in the lexicon
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the memory used by the lexicon FST in bytes
+     */
+    public long ramBytesUsed() {
+        return lexicon != null ? RamUsageEstimator.sizeOf(lexicon) : 0L;
+    }
+
+    /**
+     * The size of the lexicon is estimated once, the estimation walks the FST.
+     */
+    @Override
+    public long sizeInBytes() {
+        long size = lexiconSize;
+        if (size < 0L) {
+            size = ramBytesUsed();
+            lexiconSize = size;
+        }
+        return super.sizeInBytes() + size;
+    }
+
+    /**
+     * The lexicon engine does not reduce words to base forms.
+     */
+    @Override
+    public String reduceToBaseForm(String word) {
+        return word;
+    }
+
+    @Override
+    protected void split(char[] word, int offset, int length, DecompoundBuffer parts) {
+        // per position: the number of parts up to the position or -1 if unreachable,
+        // the number of linking elements, and the previous position
+        int[] lattice = parts.lattice(3 * (length + 1));
+        for (int i = 0; i <= length; i++) {
+            lattice[3 * i] = -1;
+        }
+        lattice[0] = 0;
+        lattice[1] = 0;
+        lattice[2] = -1;
+        if (lexicon != null) {
+            try {
+                walk(word, offset, length, lattice, parts);
+            } catch (IOException e) {
+                // the FST is on the heap
+                throw new IllegalStateException(e);
+            }
+        }
+        if (lattice[3 * length] < 2) {
+            parts.add(word, offset, length);
+            return;
+        }
+        // link the positions forward, reusing the slot of the linking elements
+        int next = length;
+        for (int i = lattice[3 * length + 2]; next > 0; i = lattice[3 * i + 2]) {
+            lattice[3 * i + 1] = next;
+            next = i;
+        }
+        for (int i = 0; i < length; i = lattice[3 * i + 1]) {
+            parts.add(word, offset + i, lattice[3 * i + 1] - i);
+        }
+    }
+
+    private void walk(char[] word, int offset, int length, int[] lattice, DecompoundBuffer parts) throws IOException {
+        FST.BytesReader reader = parts.reader(lexicon, DecompoundBuffer.LEXICON);
+        FST.Arc<Object> arc = parts.arc(DecompoundBuffer.LEXICON);
+        for (int i = 0; i < length; i++) {
+            if (lattice[3 * i] < 0) {
+                continue;
+            }
+            lexicon.getFirstArc(arc);
+            for (int j = i; j < length; j++) {
+                if (lexicon.findTargetArc(Character.toLowerCase(word[offset + j]), arc, arc, reader) == null) {
+                    break;
+                }
+                int end = j + 1;
+                if (!arc.isFinal() || end - i < minPartLength) {
+                    continue;
+                }
+                relax(lattice, i, end, 0);
+                for (char[] linkingElement : linkingElements) {
+                    // a linking element is followed by another part
+                    if (end + linkingElement.length < length && matches(word, offset + end, linkingElement)) {
+                        relax(lattice, i, end + linkingElement.length, 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void relax(int[] lattice, int from, int to, int linkingElements) {
+        int n = lattice[3 * from] + 1;
+        int l = lattice[3 * from + 1] + linkingElements;
+        int current = lattice[3 * to];
+        if (current < 0 || n < current || (n == current && l < lattice[3 * to + 1])) {
+            lattice[3 * to] = n;
+            lattice[3 * to + 1] = l;
+            lattice[3 * to + 2] = from;
+        }
+    }
+
+    private static boolean matches(char[] word, int offset, char[] linkingElement) {
+        for (int i = 0; i < linkingElement.length; i++) {
+            if (Character.toLowerCase(word[offset + i]) != linkingElement[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link PatriciaTrie} reading its node and edge tables from a memory-mapped file in the
+ * binary form of {@link CompiledPatriciaTrie}.
+ * <p/>
+ * Opening a trie reads the header, the alphabet and the class names only, the tables are
+ * not deserialized. All instances mapping the same file share the pages of the operating
+ * system cache, so the tables are held once per node, outside of the Java heap.
+ * The buffer is read at absolute positions only and may be read by many threads.
+ * <p/>
+ * The mapping stays valid while the file is renamed over or deleted, but not while it is
+ * rewritten or truncated in place. Reading a page beyond the end of a truncated file crashes
+ * the JVM with <code>SIGBUS</code> or fails with an {@link InternalError}, so a mapped file
+ * must only be replaced by renaming a complete new file over it.
+ */
+public class MappedPatriciaTrie extends PatriciaTrie {
+
+    private final ByteBuffer buffer;
+
+    private final int nodeCount;
+
+    private final int edgeCount;
+
+    private final int firstEdgeOffset;
+
+    private final int winnerOffset;
+
+    private final int votesOffset;
+
+    private final int totalOffset;
+
+    private final int edgeLabelOffset;
+
+    private final int edgeStartOffset;
+
+    private final int edgeTargetOffset;
+
+    private final int labelsOffset;
+
+    private MappedPatriciaTrie(ByteBuffer buffer, Layout layout) {
+        super(layout.alphabet, layout.classes, layout.endOfWordChar,
+                (layout.flags & CompiledPatriciaTrie.FLAG_REVERSE) != 0,
+                (layout.flags & CompiledPatriciaTrie.FLAG_IGNORECASE) != 0);
+        this.buffer = buffer;
+        this.nodeCount = layout.nodeCount;
+        this.edgeCount = layout.edgeCount;
+        this.firstEdgeOffset = layout.firstEdgeOffset;
+        this.winnerOffset = firstEdgeOffset + 4 * (nodeCount + 1);
+        this.votesOffset = winnerOffset + 4 * nodeCount;
+        this.totalOffset = votesOffset + 4 * nodeCount;
+        this.edgeLabelOffset = layout.edgeLabelOffset;
+        this.edgeStartOffset = edgeLabelOffset + 4 * edgeCount;
+        this.edgeTargetOffset = edgeStartOffset + 4 * (edgeCount + 1);
+        this.labelsOffset = layout.labelsOffset;
+        decide();
+    }
+
+    /**
+     * Map a file in compiled binary form read-only.
+     */
+    public static MappedPatriciaTrie open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new MappedPatriciaTrie(buffer, new Layout(buffer));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Check if a file starts with {@link CompiledPatriciaTrie#MAGIC}.
+     */
+    public static boolean isCompiled(File file) throws IOException {
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == CompiledPatriciaTrie.MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the size of the mapped file in bytes
+     */
+    public long getMappedSize() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    @Override
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    protected int firstEdge(int node) {
+        return buffer.getInt(firstEdgeOffset + (node << 2));
+    }
+
+    @Override
+    protected int winner(int node) {
+        return buffer.getInt(winnerOffset + (node << 2));
+    }
+
+    @Override
+    protected int votes(int node) {
+        return buffer.getInt(votesOffset + (node << 2));
+    }
+
+    @Override
+    protected int total(int node) {
+        return buffer.getInt(totalOffset + (node << 2));
+    }
+
+    @Override
+    protected int edgeLabel(int edge) {
+        return buffer.getInt(edgeLabelOffset + (edge << 2));
+    }
+
+    @Override
+    protected int edgeStart(int edge) {
+        return buffer.getInt(edgeStartOffset + (edge << 2));
+    }
+
+    @Override
+    protected int edgeTarget(int edge) {
+        return buffer.getInt(edgeTargetOffset + (edge << 2));
+    }
+
+    @Override
+    protected char label(int pos) {
+        return buffer.getChar(labelsOffset + (pos << 1));
+    }
+
+    /**
+     * Section offsets of the binary form, see {@link CompiledPatriciaTrie#write(java.io.OutputStream)}.
+     */
+    private static class Layout {
+
+        int flags;
+        char endOfWordChar;
+        char[] alphabet;
+        int nodeCount;
+        int firstEdgeOffset;
+        int edgeCount;
+        int edgeLabelOffset;
+        int labelsOffset;
+        String[] classes;
+
+        Layout(ByteBuffer buffer) throws IOException {
+            ByteBuffer b = buffer.duplicate();
+            if (b.getInt() != CompiledPatriciaTrie.MAGIC) {
+                throw new IOException("not a compiled patricia trie");
+            }
+            int version = b.getInt();
+            if (version != CompiledPatriciaTrie.VERSION) {
+                throw new IOException("unsupported compiled patricia trie version " + version);
+            }
+            flags = b.getInt();
+            endOfWordChar = (char) b.getInt();
+            alphabet = new char[b.getInt()];
+            b.asCharBuffer().get(alphabet);
+            b.position(b.position() + 2 * alphabet.length);
+            nodeCount = b.getInt();
+            firstEdgeOffset = b.position();
+            // first edges, winners, votes and totals
+            b.position(firstEdgeOffset + 4 * (nodeCount + 1) + 3 * 4 * nodeCount);
+            edgeCount = b.getInt();
+            edgeLabelOffset = b.position();
+            // edge labels, edge starts and edge targets
+            b.position(edgeLabelOffset + 4 * edgeCount + 4 * (edgeCount + 1) + 4 * edgeCount);
+            int labelLength = b.getInt();
+            labelsOffset = b.position();
+            b.position(labelsOffset + 2 * labelLength);
+            classes = new String[b.getInt()];
+            for (int i = 0; i < classes.length; i++) {
+                classes[i] = readUTF(b);
+            }
+        }
+
+        private static String readUTF(ByteBuffer b) throws IOException {
+            int length = b.getShort() & 0xffff;
+            byte[] bytes = new byte[length + 2];
+            bytes[0] = (byte) (length >>> 8);
+            bytes[1] = (byte) length;
+            b.get(bytes, 2, length);
+            return new DataInputStream(new ByteArrayInputStream(bytes)).readUTF();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A read-only Patricia trie for classifying words, compiled from a {@link CompactPatriciaTrie}.
+ * <p/>
+ * Nodes and edges are addressed by int ids. The children of a node are a contiguous run
+ * of edges, sorted by the id of their first character in a dense label alphabet.
+ * The voted class of a node, its vote count and the vote sum are precomputed. Whether the
+ * vote of a node passes the threshold is decided for all nodes when the threshold is set,
+ * so a lookup only tests a bit.
+ * <p/>
+ * Lookups follow the semantics of the string tree lookup of {@link CompactPatriciaTrie},
+ * i.e. the classes of the nearest node are voted for.
+ * <p/>
+ * Concrete subclasses decide where the node and edge tables live.
+ *
+ * @see CompiledPatriciaTrie
+ * @see MappedPatriciaTrie
+ */
+public abstract class PatriciaTrie {
+
+    public static final String UNDECIDED = "undecided";
+
+    /**
+     * The marker following words in the decompound trees.
+     */
+    public static final char WORD_BOUNDARY = '<';
+
+    /**
+     * The number of consecutive words classified by a single cursor in parallel batches
+     */
+    private static final int BATCH_RANGE = 4096;
+
+    /**
+     * Maps a character to its label id plus one, zero if the character is not in the alphabet.
+     */
+    private final int[] labelOf;
+
+    private final String[] classes;
+
+    private final char endOfWordChar;
+
+    private boolean reverse;
+
+    private boolean ignorecase;
+
+    private double thresh;
+
+    /**
+     * A bit per node, set if the vote of the node passes the threshold
+     */
+    private long[] decided;
+
+    protected PatriciaTrie(char[] alphabet, String[] classes, char endOfWordChar,
+                           boolean reverse, boolean ignorecase) {
+        this.labelOf = new int[alphabet.length > 0 ? alphabet[alphabet.length - 1] + 1 : 0];
+        for (int i = 0; i < alphabet.length; i++) {
+            labelOf[alphabet[i]] = i + 1;
+        }
+        this.classes = classes;
+        this.endOfWordChar = endOfWordChar;
+        this.reverse = reverse;
+        this.ignorecase = ignorecase;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public abstract int getNodeCount();
+
+    /**
+     * @return the number of edges
+     */
+    public abstract int getEdgeCount();
+
+    /**
+     * @return the size of the node and edge tables in bytes
+     */
+    public long getTableSize() {
+        int nodeCount = getNodeCount();
+        int edgeCount = getEdgeCount();
+        // the labels end at the start of the label after the last edge
+        return 4L * (4L * nodeCount + 1L) + 4L * (3L * edgeCount + 1L) + 2L * edgeStart(edgeCount);
+    }
+
+    /**
+     * @return the first edge of a node. The edges of a node end at the first edge of the next node.
+     */
+    protected abstract int firstEdge(int node);
+
+    /**
+     * @return the voted class id of a node
+     */
+    protected abstract int winner(int node);
+
+    /**
+     * @return the vote count of the voted class of a node
+     */
+    protected abstract int votes(int node);
+
+    /**
+     * @return the sum of all votes of a node
+     */
+    protected abstract int total(int node);
+
+    /**
+     * @return the label id of the first character of an edge
+     */
+    protected abstract int edgeLabel(int edge);
+
+    /**
+     * @return the start of an edge label. An edge label ends at the start of the next edge label.
+     */
+    protected abstract int edgeStart(int edge);
+
+    /**
+     * @return the target node of an edge
+     */
+    protected abstract int edgeTarget(int edge);
+
+    /**
+     * @return a character of the edge labels
+     */
+    protected abstract char label(int pos);
+
+    public void setThreshold(double threshold) {
+        this.thresh = threshold;
+        decide();
+    }
+
+    /**
+     * Decide the votes of all nodes. Must be called by subclasses once the tables are accessible.
+     */
+    protected void decide() {
+        int nodeCount = getNodeCount();
+        long[] bits = new long[(nodeCount + 63) >>> 6];
+        for (int node = 0; node < nodeCount; node++) {
+            // a node without votes is undecided, the ratio is NaN
+            if (((double) votes(node) / (double) total(node)) >= thresh) {
+                bits[node >>> 6] |= 1L << node;
+            }
+        }
+        this.decided = bits;
+    }
+
+    public double getThreshold() {
+        return thresh;
+    }
+
+    public void setIgnoreCase(boolean b) {
+        this.ignorecase = b;
+    }
+
+    public boolean getIgnoreCase() {
+        return ignorecase;
+    }
+
+    public void setReverse(boolean b) {
+        this.reverse = b;
+    }
+
+    public boolean getReverse() {
+        return reverse;
+    }
+
+    /**
+     * @return the label alphabet, sorted by label id
+     */
+    char[] getAlphabet() {
+        int n = 0;
+        for (int label : labelOf) {
+            if (label > 0) {
+                n++;
+            }
+        }
+        char[] alphabet = new char[n];
+        for (int c = 0; c < labelOf.length; c++) {
+            if (labelOf[c] > 0) {
+                alphabet[labelOf[c] - 1] = (char) c;
+            }
+        }
+        return alphabet;
+    }
+
+    protected char getEndOfWordChar() {
+        return endOfWordChar;
+    }
+
+    protected String[] getClasses() {
+        return classes;
+    }
+
+    /**
+     * Classify a word.
+     *
+     * @param word the word
+     * @return the voted class of the nearest node, or {@link #UNDECIDED}
+     */
+    public String classify(String word) {
+        char[] chars = word.toCharArray();
+        int id = classify(chars, 0, chars.length, false, false);
+        return id < 0 ? UNDECIDED : classes[id];
+    }
+
+    /**
+     * Classify a word in a character buffer without copying it. The key is the word, read backwards
+     * if <code>reverseWord</code> is set, followed by {@link #WORD_BOUNDARY} if <code>boundary</code>
+     * is set. Case and reverse settings of this trie apply to the key as in {@link #classify(String)}.
+     *
+     * @param word        the buffer
+     * @param offset      the start of the word in the buffer
+     * @param length      the length of the word
+     * @param reverseWord true if the word is read backwards
+     * @param boundary    true if the word boundary marker follows the word
+     * @return the id of the voted class of the nearest node, or -1 if undecided
+     * @see #getClassName(int)
+     */
+    public int classify(char[] word, int offset, int length, boolean reverseWord, boolean boundary) {
+        return vote(find(word, offset, length, reverseWord, boundary ? length + 1 : length));
+    }
+
+    /**
+     * Classify words one after the other with a {@link Cursor}. Words sorted in the order of
+     * the keys of this trie share the longest prefixes, which are not descended again.
+     *
+     * @param words the words
+     * @return the ids of the voted classes of the words, -1 for undecided words
+     * @see #getClassName(int)
+     */
+    public int[] classify(Iterator<String> words) {
+        Cursor cursor = cursor();
+        int[] ids = new int[16];
+        int n = 0;
+        while (words.hasNext()) {
+            String word = words.next();
+            ids = ArrayUtil.grow(ids, n + 1);
+            ids[n++] = cursor.classify(word.toCharArray(), 0, word.length(), false, false);
+        }
+        return Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * Classify a list of words in parallel. The list is divided into ranges of consecutive words,
+     * which are classified by a {@link Cursor} each on a fork/join pool. For sorted words, the ranges
+     * are disjoint key ranges and the words of a range share their prefixes as in {@link #classify(Iterator)}.
+     *
+     * @param words       the words
+     * @param parallelism the number of threads
+     * @return the ids of the voted classes of the words, -1 for undecided words
+     */
+    public int[] classify(List<String> words, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        if (parallelism == 1 || words.size() <= BATCH_RANGE) {
+            return classify(words.iterator());
+        }
+        int[] ids = new int[words.size()];
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new ClassifyTask(words, ids, 0, words.size()));
+        } finally {
+            pool.shutdown();
+        }
+        return ids;
+    }
+
+    /**
+     * @return a new cursor, for classifying words of a single thread
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * @return the number of classes
+     */
+    public int getClassCount() {
+        return classes.length;
+    }
+
+    /**
+     * @param id a class id
+     * @return the class name
+     */
+    public String getClassName(int id) {
+        return classes[id];
+    }
+
+    /**
+     * @return the id of the voted class of a node, or -1 if undecided
+     */
+    int vote(int node) {
+        if ((decided[node >>> 6] & (1L << node)) != 0L) {
+            return winner(node);
+        }
+        return -1;
+    }
+
+    /**
+     * Find the nearest node of a key.
+     */
+    private int find(char[] word, int offset, int length, boolean reverseWord, int keyLength) {
+        int len = keyLength + 1;
+        int node = 0;
+        int pos = 0;
+        while (pos < len) {
+            int edge = findEdge(node, keyChar(word, offset, length, reverseWord, keyLength, pos));
+            if (edge < 0) {
+                break;
+            }
+            int start = edgeStart(edge);
+            int labelLength = edgeStart(edge + 1) - start;
+            int target = edgeTarget(edge);
+            if (labelLength > len - pos) {
+                return target;
+            }
+            for (int i = 0; i < labelLength; i++) {
+                if (label(start + i) != keyChar(word, offset, length, reverseWord, keyLength, pos + i)) {
+                    return target;
+                }
+            }
+            node = target;
+            pos += labelLength;
+        }
+        return node;
+    }
+
+    /**
+     * The character of a key at a position. The key is the word, optionally read backwards and followed
+     * by the word boundary, in the direction of this trie, terminated by the end of word character.
+     */
+    private char keyChar(char[] word, int offset, int length, boolean reverseWord, int keyLength, int pos) {
+        if (pos == keyLength) {
+            return endOfWordChar;
+        }
+        int i = reverse ? keyLength - 1 - pos : pos;
+        char c = i == length ? WORD_BOUNDARY : word[offset + (reverseWord ? length - 1 - i : i)];
+        return ignorecase ? Character.toLowerCase(c) : c;
+    }
+
+    /**
+     * Classifies words like {@link PatriciaTrie#classify(char[], int, int, boolean, boolean)}, but keeps
+     * the nodes on the path of the previous key. The descent of a key resumes from the deepest node
+     * whose path is a prefix of both the previous key and the key, so consecutive words sharing long
+     * prefixes, as sorted words do, are classified at the cost of their differing suffixes.
+     * <p/>
+     * Not thread safe.
+     */
+    public final class Cursor {
+
+        private char[] key = new char[32];
+
+        private char[] previous = new char[32];
+
+        private int previousLength;
+
+        /**
+         * The nodes on the path of the previous key, and the key position at each node
+         */
+        private int[] nodes = new int[16];
+
+        private int[] positions = new int[16];
+
+        private int depth = 1;
+
+        private Cursor() {
+        }
+
+        /**
+         * @see PatriciaTrie#classify(char[], int, int, boolean, boolean)
+         */
+        public int classify(char[] word, int offset, int length, boolean reverseWord, boolean boundary) {
+            int keyLength = boundary ? length + 1 : length;
+            int len = keyLength + 1;
+            key = ArrayUtil.grow(key, len);
+            for (int i = 0; i < len; i++) {
+                key[i] = keyChar(word, offset, length, reverseWord, keyLength, i);
+            }
+            int common = 0;
+            int max = Math.min(len, previousLength);
+            while (common < max && key[common] == previous[common]) {
+                common++;
+            }
+            // the root at position 0 is on every path
+            while (positions[depth - 1] > common) {
+                depth--;
+            }
+            int node = nodes[depth - 1];
+            int pos = positions[depth - 1];
+            // the descent of find(), over the key
+            while (pos < len) {
+                int edge = findEdge(node, key[pos]);
+                if (edge < 0) {
+                    break;
+                }
+                int start = edgeStart(edge);
+                int labelLength = edgeStart(edge + 1) - start;
+                int target = edgeTarget(edge);
+                if (labelLength > len - pos) {
+                    node = target;
+                    break;
+                }
+                int i = 0;
+                while (i < labelLength && label(start + i) == key[pos + i]) {
+                    i++;
+                }
+                if (i < labelLength) {
+                    node = target;
+                    break;
+                }
+                node = target;
+                pos += labelLength;
+                nodes = ArrayUtil.grow(nodes, depth + 1);
+                positions = ArrayUtil.grow(positions, depth + 1);
+                nodes[depth] = node;
+                positions[depth] = pos;
+                depth++;
+            }
+            char[] tmp = previous;
+            previous = key;
+            key = tmp;
+            previousLength = len;
+            return vote(node);
+        }
+    }
+
+    /**
+     * Classifies a range of words, splitting it until ranges are small enough for a single cursor.
+     */
+    private class ClassifyTask extends RecursiveAction {
+
+        private final List<String> words;
+
+        private final int[] ids;
+
+        private final int from;
+
+        private final int to;
+
+        ClassifyTask(List<String> words, int[] ids, int from, int to) {
+            this.words = words;
+            this.ids = ids;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_RANGE) {
+                Cursor cursor = cursor();
+                for (int i = from; i < to; i++) {
+                    String word = words.get(i);
+                    ids[i] = cursor.classify(word.toCharArray(), 0, word.length(), false, false);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ClassifyTask(words, ids, from, mid), new ClassifyTask(words, ids, mid, to));
+        }
+    }
+
+    private int findEdge(int node, char c) {
+        if (c >= labelOf.length) {
+            return -1;
+        }
+        int label = labelOf[c] - 1;
+        if (label < 0) {
+            return -1;
+        }
+        int lo = firstEdge(node);
+        int hi = firstEdge(node + 1) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int l = edgeLabel(mid);
+            if (l < label) {
+                lo = mid + 1;
+            } else if (l > label) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Load a trie into the heap, either in compiled binary form or as a serialized
+     * {@link CompactPatriciaTrie} which is compiled on the fly. The stream is closed.
+     */
+    public static PatriciaTrie load(InputStream in) throws IOException, ClassNotFoundException {
+        return CompiledPatriciaTrie.load(in);
+    }
+
+    /**
+     * Load a trie from an URL. If <code>mmap</code> is set and the URL denotes a file in compiled
+     * binary form, the trie is memory-mapped, otherwise it is loaded into the heap. A mapped file
+     * must not be rewritten in place while the trie is in use, see {@link MappedPatriciaTrie}.
+     */
+    public static PatriciaTrie load(URL url, boolean mmap) throws IOException, ClassNotFoundException {
+        if (mmap && "file".equals(url.getProtocol())) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(url.getPath());
+            }
+            if (MappedPatriciaTrie.isCompiled(file)) {
+                return MappedPatriciaTrie.open(file);
+            }
+        }
+        return load(url.openStream());
+    }
+}
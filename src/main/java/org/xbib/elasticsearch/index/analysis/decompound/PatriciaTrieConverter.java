@@ -0,0 +1,40 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts serialized {@link CompactPatriciaTrie} <code>.tree</code> files into the
+ * binary form of {@link CompiledPatriciaTrie}.
+ * <p/>
+ * Usage: <code>PatriciaTrieConverter &lt;input.tree&gt; &lt;output&gt; [&lt;input.tree&gt; &lt;output&gt; ...]</code>
+ */
+public class PatriciaTrieConverter {
+
+    public static void convert(String input, String output) throws IOException, ClassNotFoundException {
+        CompactPatriciaTrie trie = new CompactPatriciaTrie();
+        trie.load(new FileInputStream(input));
+        CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+        OutputStream out = new FileOutputStream(output);
+        try {
+            compiled.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0 || args.length % 2 != 0) {
+            System.err.println("usage: " + PatriciaTrieConverter.class.getName()
+                    + " <input.tree> <output> [<input.tree> <output> ...]");
+            System.exit(1);
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            long t0 = System.currentTimeMillis();
+            convert(args[i], args[i + 1]);
+            System.err.println(args[i] + " -> " + args[i + 1] + " (" + (System.currentTimeMillis() - t0) + " ms)");
+        }
+    }
+}
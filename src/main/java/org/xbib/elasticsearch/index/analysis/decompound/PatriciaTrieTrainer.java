@@ -0,0 +1,711 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.ArrayUtil;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trains a trie from word/class pairs and compiles it into the binary form of
+ * {@link CompiledPatriciaTrie}, without building a {@link CompactPatriciaTrie}.
+ * <p/>
+ * Training words are partitioned by the first character of their key. All keys of a partition
+ * end up below the same child of the root, so the partitions are trained and pruned in parallel
+ * on a fork/join pool. Each partition keeps its words in a single character buffer, its trie nodes
+ * in int arrays and its votes as pairs of class id and count. The vote counts of the root are
+ * merged while reading. The result classifies like a {@link CompactPatriciaTrie} trained with the
+ * same words in the same order, pruned with the same threshold, and compiled.
+ * <p/>
+ * Words are added from a single thread.
+ * <p/>
+ * Usage: <code>PatriciaTrieTrainer [-reverse] [-ignorecase] [-noprune] [-threshold &lt;t&gt;]
+ * [-parallelism &lt;n&gt;] &lt;input&gt; &lt;output&gt;</code>
+ * <p/>
+ * The input is UTF-8 with one <code>word TAB class [TAB count]</code> per line, the count defaults to 1.
+ */
+public class PatriciaTrieTrainer {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The end of word character of {@link CompactPatriciaTrie}
+     */
+    private static final char END_OF_WORD = 4;
+
+    private static final int PROGRESS_INTERVAL = 1000000;
+
+    private final Map<String, Integer> classIds = new HashMap<String, Integer>();
+
+    private final List<String> classNames = new ArrayList<String>();
+
+    private final Partition[] partitions = new Partition[Character.MAX_VALUE + 1];
+
+    private int[] rootCounts = new int[4];
+
+    private boolean reverse;
+
+    private boolean ignorecase;
+
+    private boolean prune = true;
+
+    private double thresh;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private PrintStream progress;
+
+    private long words;
+
+    public PatriciaTrieTrainer setReverse(boolean reverse) {
+        this.reverse = reverse;
+        return this;
+    }
+
+    public PatriciaTrieTrainer setIgnoreCase(boolean ignorecase) {
+        this.ignorecase = ignorecase;
+        return this;
+    }
+
+    /**
+     * @param prune true if the trie is pruned with the threshold as in {@link CompactPatriciaTrie#prune()}
+     */
+    public PatriciaTrieTrainer setPrune(boolean prune) {
+        this.prune = prune;
+        return this;
+    }
+
+    public PatriciaTrieTrainer setThreshold(double threshold) {
+        this.thresh = threshold;
+        return this;
+    }
+
+    public PatriciaTrieTrainer setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * @param progress a stream for progress and memory reports, or null
+     */
+    public PatriciaTrieTrainer setProgress(PrintStream progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * @return the number of words added
+     */
+    public long getWordCount() {
+        return words;
+    }
+
+    public void train(String word, String classify) {
+        train(word, classify, 1);
+    }
+
+    public void train(String word, String classify, int nr) {
+        if (ignorecase) {
+            word = word.toLowerCase();
+        }
+        Integer id = classIds.get(classify);
+        if (id == null) {
+            id = classNames.size();
+            classIds.put(classify, id);
+            classNames.add(classify);
+            rootCounts = ArrayUtil.grow(rootCounts, classNames.size());
+        }
+        rootCounts[id] += nr;
+        int length = word.length();
+        char first = length == 0 ? END_OF_WORD : word.charAt(reverse ? length - 1 : 0);
+        Partition partition = partitions[first];
+        if (partition == null) {
+            partition = new Partition(first);
+            partitions[first] = partition;
+        }
+        partition.add(word, id, nr);
+        words++;
+        if (progress != null && words % PROGRESS_INTERVAL == 0) {
+            report(words + " words");
+        }
+    }
+
+    /**
+     * Add the words of a stream, see the class comment for the format. The stream is closed.
+     */
+    public void train(InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length < 2 || fields.length > 3) {
+                    throw new IOException("line " + lineNumber + ": expected word, class and optional count");
+                }
+                int nr = 1;
+                if (fields.length == 3) {
+                    try {
+                        nr = Integer.parseInt(fields[2]);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("line " + lineNumber + ": invalid count " + fields[2]);
+                    }
+                }
+                train(fields[0], fields[1], nr);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Train and prune the partitions in parallel and compile the trie.
+     */
+    public CompiledPatriciaTrie compile() {
+        if (classNames.isEmpty()) {
+            throw new IllegalArgumentException("trie is empty");
+        }
+        report(words + " words in " + partitionCount() + " partitions");
+        int[] root = rootVotes();
+        // a root with a single class is pruned to a leaf
+        boolean leaf = prune && root.length == 2;
+        String rootVote = prune ? vote(root, true, null) : null;
+        List<Partition> list = new ArrayList<Partition>();
+        if (!leaf) {
+            for (Partition partition : partitions) {
+                if (partition != null) {
+                    list.add(partition);
+                }
+            }
+        }
+        if (!list.isEmpty()) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new TrainTask(list, 0, list.size(), rootVote));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        report("trained");
+        CompiledPatriciaTrie compiled = new Builder(root, list).build();
+        compiled.setThreshold(thresh);
+        report(compiled.getNodeCount() + " nodes, " + compiled.getEdgeCount() + " edges");
+        return compiled;
+    }
+
+    private int partitionCount() {
+        int n = 0;
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private int[] rootVotes() {
+        int[] votes = new int[2 * classNames.size()];
+        for (int i = 0; i < classNames.size(); i++) {
+            votes[2 * i] = i;
+            votes[2 * i + 1] = rootCounts[i];
+        }
+        return votes;
+    }
+
+    private void report(String message) {
+        if (progress != null) {
+            Runtime runtime = Runtime.getRuntime();
+            long used = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+            synchronized (progress) {
+                progress.println(message + " (heap used " + used + " MB of " + (runtime.maxMemory() >> 20) + " MB)");
+            }
+        }
+    }
+
+    /**
+     * Vote as {@link CompactPatriciaTrie} does. Classes are visited in the order of a hash map
+     * the class names were put into in the order of their first vote, which decides the order
+     * of tied class names.
+     *
+     * @param votes     pairs of class id and count, in the order of the first vote
+     * @param threshold true if the vote must pass the threshold
+     * @param result    receives the winning count and the sum of all counts, or null
+     * @return the voted class
+     */
+    private String vote(int[] votes, boolean threshold, int[] result) {
+        int n = votes.length / 2;
+        String[] names = new String[n];
+        int[] values = new int[n];
+        if (n == 1) {
+            names[0] = classNames.get(votes[0]);
+            values[0] = votes[1];
+        } else {
+            Map<String, Integer> map = new HashMap<String, Integer>();
+            for (int i = 0; i < votes.length; i += 2) {
+                map.put(classNames.get(votes[i]), votes[i + 1]);
+            }
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : map.entrySet()) {
+                names[i] = entry.getKey();
+                values[i++] = entry.getValue();
+            }
+        }
+        int sum = 0;
+        int maxval = 0;
+        String maxclass = PatriciaTrie.UNDECIDED;
+        for (int i = 0; i < n; i++) {
+            String actclass = names[i];
+            int actval = values[i];
+            sum += actval;
+            if (actval > maxval) {
+                maxval = actval;
+                maxclass = actclass;
+            }
+            if ((actval == maxval) && !actclass.equals(maxclass) && !actclass.isEmpty()) {
+                maxclass += ";" + actclass;
+            }
+        }
+        if (result != null) {
+            result[0] = maxval;
+            result[1] = sum;
+        }
+        if (threshold && !(((double) maxval / (double) sum) >= thresh)) {
+            return PatriciaTrie.UNDECIDED;
+        }
+        return maxclass;
+    }
+
+    /**
+     * Splits a list of partitions until a single partition is left, which is trained and pruned.
+     */
+    private class TrainTask extends RecursiveAction {
+
+        private final List<Partition> list;
+
+        private final int from;
+
+        private final int to;
+
+        private final String rootVote;
+
+        TrainTask(List<Partition> list, int from, int to, String rootVote) {
+            this.list = list;
+            this.from = from;
+            this.to = to;
+            this.rootVote = rootVote;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                Partition partition = list.get(from);
+                partition.train();
+                if (prune) {
+                    partition.prune(rootVote);
+                }
+                report("partition " + partition.name() + ": " + partition.size + " words, "
+                        + partition.nodeCount + " nodes");
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TrainTask(list, from, mid, rootVote), new TrainTask(list, mid, to, rootVote));
+        }
+    }
+
+    /**
+     * The words with the same first key character and their trie. Node 0 stands for the root,
+     * its single child is the child of the root of the complete trie. Labels point into the
+     * character buffer of the words.
+     */
+    private class Partition {
+
+        private final char first;
+
+        private char[] chars = new char[64];
+
+        private int length;
+
+        private int[] ends = new int[8];
+
+        private int[] classes = new int[8];
+
+        private int[] counts = new int[8];
+
+        private int size;
+
+        private int[] labelStart;
+
+        private int[] labelLength;
+
+        private int[] firstChild;
+
+        private int[] nextSibling;
+
+        private int[][] votes;
+
+        private int nodeCount;
+
+        Partition(char first) {
+            this.first = first;
+        }
+
+        String name() {
+            return first < 32 ? "\\u" + Integer.toHexString(first) : String.valueOf(first);
+        }
+
+        void add(String word, int id, int nr) {
+            int n = word.length();
+            chars = ArrayUtil.grow(chars, length + n + 1);
+            if (reverse) {
+                for (int i = 0; i < n; i++) {
+                    chars[length + i] = word.charAt(n - 1 - i);
+                }
+            } else {
+                word.getChars(0, n, chars, length);
+            }
+            length += n;
+            chars[length++] = END_OF_WORD;
+            ends = ArrayUtil.grow(ends, size + 1);
+            classes = ArrayUtil.grow(classes, size + 1);
+            counts = ArrayUtil.grow(counts, size + 1);
+            ends[size] = length;
+            classes[size] = id;
+            counts[size] = nr;
+            size++;
+        }
+
+        void train() {
+            // a patricia trie has less than two nodes per key
+            int capacity = 2 * size + 1;
+            labelStart = new int[capacity];
+            labelLength = new int[capacity];
+            firstChild = new int[capacity];
+            nextSibling = new int[capacity];
+            votes = new int[capacity][];
+            newNode(0, 0);
+            int start = 0;
+            for (int i = 0; i < size; i++) {
+                insert(start, ends[i], classes[i], counts[i]);
+                start = ends[i];
+            }
+            ends = null;
+            classes = null;
+            counts = null;
+        }
+
+        private void insert(int pos, int end, int id, int nr) {
+            int node = 0;
+            addVote(node, id, nr);
+            while (true) {
+                int child = child(node, chars[pos]);
+                if (child < 0) {
+                    int leaf = newNode(pos, end - pos);
+                    addVote(leaf, id, nr);
+                    nextSibling[leaf] = firstChild[node];
+                    firstChild[node] = leaf;
+                    return;
+                }
+                int start = labelStart[child];
+                int len = labelLength[child];
+                int max = Math.min(len, end - pos);
+                int p = 0;
+                while (p < max && chars[start + p] == chars[pos + p]) {
+                    p++;
+                }
+                if (p == end - pos) {
+                    // same key
+                    addVote(child, id, nr);
+                    return;
+                }
+                if (p == len) {
+                    addVote(child, id, nr);
+                    node = child;
+                    pos += p;
+                    continue;
+                }
+                // split the edge, the child keeps its place and becomes the common prefix
+                int rest = newNode(start + p, len - p);
+                firstChild[rest] = firstChild[child];
+                votes[rest] = votes[child];
+                labelLength[child] = p;
+                votes[child] = votes[rest].clone();
+                addVote(child, id, nr);
+                int leaf = newNode(pos + p, end - pos - p);
+                addVote(leaf, id, nr);
+                firstChild[child] = leaf;
+                nextSibling[leaf] = rest;
+                return;
+            }
+        }
+
+        private int newNode(int start, int len) {
+            int node = nodeCount++;
+            labelStart[node] = start;
+            labelLength[node] = len;
+            firstChild[node] = -1;
+            nextSibling[node] = -1;
+            votes[node] = new int[0];
+            return node;
+        }
+
+        private int child(int node, char c) {
+            for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                if (chars[labelStart[child]] == c) {
+                    return child;
+                }
+            }
+            return -1;
+        }
+
+        private void addVote(int node, int id, int nr) {
+            int[] v = votes[node];
+            for (int i = 0; i < v.length; i += 2) {
+                if (v[i] == id) {
+                    v[i + 1] += nr;
+                    return;
+                }
+            }
+            v = Arrays.copyOf(v, v.length + 2);
+            v[v.length - 2] = id;
+            v[v.length - 1] = nr;
+            votes[node] = v;
+        }
+
+        /**
+         * Prune the child of the root, which is removed if its single class is the voted class of the root.
+         */
+        void prune(String rootVote) {
+            int child = firstChild[0];
+            if (votes[child].length == 2 && classNames.get(votes[child][0]).equals(rootVote)) {
+                firstChild[0] = -1;
+            } else {
+                prune(child);
+            }
+        }
+
+        /**
+         * Same as the pruning of {@link CompactPatriciaTrie}.
+         */
+        private void prune(int node) {
+            if (firstChild[node] < 0) {
+                labelLength[node] = 1;
+            } else if (votes[node].length == 2) {
+                labelLength[node] = 1;
+                firstChild[node] = -1;
+            } else {
+                String voted = vote(votes[node], true, null);
+                int prev = -1;
+                for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                    if (votes[child].length == 2 && classNames.get(votes[child][0]).equals(voted)) {
+                        if (prev < 0) {
+                            firstChild[node] = nextSibling[child];
+                        } else {
+                            nextSibling[prev] = nextSibling[child];
+                        }
+                    } else {
+                        prune(child);
+                        prev = child;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Assigns node ids breadth-first over all partitions, like the compiler of {@link CompiledPatriciaTrie}.
+     */
+    private class Builder {
+
+        private final int[] root;
+
+        private final List<Partition> list;
+
+        private final Map<String, Integer> winners = new LinkedHashMap<String, Integer>();
+
+        private final int[] result = new int[2];
+
+        private int[] nodePartition = new int[16];
+        private int[] nodeLocal = new int[16];
+        private int[] firstEdge = new int[16];
+        private int[] winner = new int[16];
+        private int[] votes = new int[16];
+        private int[] total = new int[16];
+        private int nodeCount;
+
+        private int[] edgeChar = new int[16];
+        private int[] edgeStart = new int[16];
+        private int[] edgeTarget = new int[16];
+        private int edgeCount;
+
+        private char[] labels = new char[16];
+        private int labelLength;
+
+        Builder(int[] root, List<Partition> list) {
+            this.root = root;
+            this.list = list;
+        }
+
+        CompiledPatriciaTrie build() {
+            addNode(-1, -1, root);
+            firstEdge[0] = 0;
+            // partitions are ordered by their first character, so are the edges of the root
+            for (int i = 0; i < list.size(); i++) {
+                int child = list.get(i).firstChild[0];
+                if (child >= 0) {
+                    addEdge(i, child);
+                }
+            }
+            for (int node = 1; node < nodeCount; node++) {
+                firstEdge[node] = edgeCount;
+                Partition partition = list.get(nodePartition[node]);
+                int local = nodeLocal[node];
+                int n = 0;
+                for (int child = partition.firstChild[local]; child >= 0; child = partition.nextSibling[child]) {
+                    n++;
+                }
+                long[] children = new long[n];
+                n = 0;
+                for (int child = partition.firstChild[local]; child >= 0; child = partition.nextSibling[child]) {
+                    children[n++] = ((long) partition.chars[partition.labelStart[child]] << 32) | child;
+                }
+                // sort by first character, children of a node differ in their first character
+                Arrays.sort(children);
+                for (long child : children) {
+                    addEdge(nodePartition[node], (int) child);
+                }
+            }
+            firstEdge = ArrayUtil.grow(firstEdge, nodeCount + 1);
+            firstEdge[nodeCount] = edgeCount;
+            edgeStart = ArrayUtil.grow(edgeStart, edgeCount + 1);
+            edgeStart[edgeCount] = labelLength;
+            boolean[] seen = new boolean[Character.MAX_VALUE + 1];
+            int size = 0;
+            for (int e = 0; e < edgeCount; e++) {
+                if (!seen[edgeChar[e]]) {
+                    seen[edgeChar[e]] = true;
+                    size++;
+                }
+            }
+            char[] alphabet = new char[size];
+            int[] ids = new int[Character.MAX_VALUE + 1];
+            for (int c = 0, n = 0; c <= Character.MAX_VALUE; c++) {
+                if (seen[c]) {
+                    ids[c] = n;
+                    alphabet[n++] = (char) c;
+                }
+            }
+            int[] edgeLabel = new int[edgeCount];
+            for (int e = 0; e < edgeCount; e++) {
+                edgeLabel[e] = ids[edgeChar[e]];
+            }
+            return new CompiledPatriciaTrie(alphabet,
+                    Arrays.copyOf(firstEdge, nodeCount + 1),
+                    Arrays.copyOf(winner, nodeCount),
+                    Arrays.copyOf(votes, nodeCount),
+                    Arrays.copyOf(total, nodeCount),
+                    edgeLabel,
+                    Arrays.copyOf(edgeStart, edgeCount + 1),
+                    Arrays.copyOf(edgeTarget, edgeCount),
+                    Arrays.copyOf(labels, labelLength),
+                    winners.keySet().toArray(new String[winners.size()]),
+                    END_OF_WORD, reverse, ignorecase);
+        }
+
+        private void addEdge(int p, int child) {
+            Partition partition = list.get(p);
+            int start = partition.labelStart[child];
+            int len = partition.labelLength[child];
+            edgeChar = ArrayUtil.grow(edgeChar, edgeCount + 1);
+            edgeStart = ArrayUtil.grow(edgeStart, edgeCount + 1);
+            edgeTarget = ArrayUtil.grow(edgeTarget, edgeCount + 1);
+            labels = ArrayUtil.grow(labels, labelLength + len);
+            edgeChar[edgeCount] = partition.chars[start];
+            edgeStart[edgeCount] = labelLength;
+            System.arraycopy(partition.chars, start, labels, labelLength, len);
+            labelLength += len;
+            edgeTarget[edgeCount] = addNode(p, child, partition.votes[child]);
+            edgeCount++;
+        }
+
+        private int addNode(int partition, int local, int[] nodeVotes) {
+            nodePartition = ArrayUtil.grow(nodePartition, nodeCount + 1);
+            nodeLocal = ArrayUtil.grow(nodeLocal, nodeCount + 1);
+            firstEdge = ArrayUtil.grow(firstEdge, nodeCount + 1);
+            winner = ArrayUtil.grow(winner, nodeCount + 1);
+            votes = ArrayUtil.grow(votes, nodeCount + 1);
+            total = ArrayUtil.grow(total, nodeCount + 1);
+            nodePartition[nodeCount] = partition;
+            nodeLocal[nodeCount] = local;
+            String name = vote(nodeVotes, false, result);
+            Integer id = winners.get(name);
+            if (id == null) {
+                id = winners.size();
+                winners.put(name, id);
+            }
+            winner[nodeCount] = id;
+            votes[nodeCount] = result[0];
+            total[nodeCount] = result[1];
+            return nodeCount++;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        PatriciaTrieTrainer trainer = new PatriciaTrieTrainer().setProgress(System.err);
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                if ("-reverse".equals(args[i])) {
+                    trainer.setReverse(true);
+                } else if ("-ignorecase".equals(args[i])) {
+                    trainer.setIgnoreCase(true);
+                } else if ("-noprune".equals(args[i])) {
+                    trainer.setPrune(false);
+                } else if ("-threshold".equals(args[i])) {
+                    trainer.setThreshold(Double.parseDouble(args[++i]));
+                } else if ("-parallelism".equals(args[i])) {
+                    trainer.setParallelism(Integer.parseInt(args[++i]));
+                } else {
+                    throw new IllegalArgumentException(args[i]);
+                }
+            }
+        } catch (RuntimeException e) {
+            i = -1;
+        }
+        if (i < 0 || args.length - i != 2) {
+            System.err.println("usage: " + PatriciaTrieTrainer.class.getName()
+                    + " [-reverse] [-ignorecase] [-noprune] [-threshold <t>] [-parallelism <n>] <input> <output>");
+            System.exit(1);
+        }
+        long t0 = System.currentTimeMillis();
+        trainer.train(new FileInputStream(args[i]));
+        CompiledPatriciaTrie compiled = trainer.compile();
+        OutputStream out = new FileOutputStream(args[i + 1]);
+        try {
+            compiled.write(out);
+        } finally {
+            out.close();
+        }
+        System.err.println(args[i] + " -> " + args[i + 1] + " (" + (System.currentTimeMillis() - t0) + " ms)");
+    }
+}
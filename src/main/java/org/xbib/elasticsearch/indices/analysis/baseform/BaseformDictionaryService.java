@@ -0,0 +1,186 @@
+package org.xbib.elasticsearch.indices.analysis.baseform;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Singleton;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
+import org.xbib.elasticsearch.index.analysis.baseform.Dictionary;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+
+/**
+ * Node level registry of baseform dictionaries, so all indices and filters configured with the
+ * same language and dictionary resource share a single {@link Dictionary}, which is read only.
+ * <p/>
+ * Dictionaries are keyed by language, resolved resource, checksum of the resource content and
+ * <code>mmap</code>, so a changed resource is loaded again for new indices. Dictionaries are acquired
+ * by an index and counted by the indices holding them. When the last holding index is closed,
+ * the dictionary is dropped.
+ * <p/>
+ * A dictionary is loaded by the first index acquiring it, outside of the registry lock, so acquires
+ * and releases of other dictionaries do not wait for the load. Acquires of the same dictionary wait
+ * for the load and fail with its cause, a failed load is not kept.
+ */
+@Singleton
+public class BaseformDictionaryService extends AbstractComponent {
+
+    private final Map<String, Entry> dictionaries = new HashMap<String, Entry>();
+
+    @Inject
+    public BaseformDictionaryService(Settings settings) {
+        super(settings);
+    }
+
+    /**
+     * Acquire a dictionary for an index, configured by the settings of a baseform token filter.
+     * The dictionary is loaded only if no other index holds a dictionary with the same configuration.
+     * <p/>
+     * Settings are <code>language</code> (default <code>de</code>), <code>dictionary</code>, a lemma list or
+     * a compiled dictionary (default <code>/baseform/&lt;language&gt;-lemma-utf8.txt</code>), and
+     * <code>mmap</code> for memory-mapping compiled dictionaries on the file system.
+     *
+     * @param index    the index
+     * @param env      the environment for resolving the dictionary
+     * @param settings the filter settings
+     * @return the dictionary
+     */
+    public Dictionary acquire(Index index, Environment env, Settings settings) throws IOException {
+        String language = settings.get("language", "de");
+        URL url = env.resolveConfig(settings.get("dictionary", "/baseform/" + language + "-lemma-utf8.txt"));
+        boolean mmap = settings.getAsBoolean("mmap", true);
+        // URLs are compared by external form, URL.equals() may resolve host names
+        String key = "[language=" + language + "," + url.toExternalForm() + ",checksum="
+                + Long.toHexString(checksum(url)) + ",mmap=" + mmap + "]";
+        Entry entry;
+        boolean load = false;
+        synchronized (dictionaries) {
+            entry = dictionaries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, url, mmap);
+                dictionaries.put(key, entry);
+                load = true;
+            }
+            entry.indices.add(index.name());
+        }
+        if (load) {
+            // loaded outside of the lock, acquires of other dictionaries do not wait for this one
+            entry.loading.run();
+            if (entry.dictionary == null) {
+                // failed, the acquires waiting for the entry fail with the same cause
+                synchronized (dictionaries) {
+                    if (dictionaries.get(key) == entry) {
+                        dictionaries.remove(key);
+                    }
+                }
+            }
+        }
+        return get(entry.loading);
+    }
+
+    /**
+     * Release all dictionaries held by an index.
+     *
+     * @param index the index
+     */
+    public void release(Index index) {
+        synchronized (dictionaries) {
+            Iterator<Map.Entry<String, Entry>> it = dictionaries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getValue().indices.remove(index.name()) && entry.getValue().indices.isEmpty()) {
+                    it.remove();
+                    logger.debug("released baseform dictionary {}", entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of dictionaries held
+     */
+    public int size() {
+        synchronized (dictionaries) {
+            return dictionaries.size();
+        }
+    }
+
+    private static long checksum(URL url) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        InputStream in = url.openStream();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private static Dictionary get(Future<Dictionary> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading baseform dictionary");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ElasticsearchException("failed to load baseform dictionary", cause);
+        }
+    }
+
+    private class Entry {
+
+        /**
+         * Loads the dictionary, run by the first acquire of the entry
+         */
+        final FutureTask<Dictionary> loading;
+
+        /**
+         * The dictionary, null while loading or if loading failed
+         */
+        volatile Dictionary dictionary;
+
+        final Set<String> indices = new HashSet<String>();
+
+        Entry(final String key, final URL url, final boolean mmap) {
+            this.loading = new FutureTask<Dictionary>(new Callable<Dictionary>() {
+                @Override
+                public Dictionary call() throws Exception {
+                    long t0 = System.currentTimeMillis();
+                    Dictionary dictionary = new Dictionary().load(url, mmap);
+                    logger.debug("loaded baseform dictionary {} in {} ms", key, System.currentTimeMillis() - t0);
+                    Entry.this.dictionary = dictionary;
+                    return dictionary;
+                }
+            });
+        }
+    }
+}
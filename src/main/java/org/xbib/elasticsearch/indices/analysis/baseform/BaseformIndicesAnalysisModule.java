@@ -0,0 +1,11 @@
+package org.xbib.elasticsearch.indices.analysis.baseform;
+
+import org.elasticsearch.common.inject.AbstractModule;
+
+public class BaseformIndicesAnalysisModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(BaseformDictionaryService.class).asEagerSingleton();
+    }
+}
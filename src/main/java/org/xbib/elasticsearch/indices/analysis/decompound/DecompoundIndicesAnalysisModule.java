@@ -0,0 +1,11 @@
+package org.xbib.elasticsearch.indices.analysis.decompound;
+
+import org.elasticsearch.common.inject.AbstractModule;
+
+public class DecompoundIndicesAnalysisModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(DecompounderService.class).asEagerSingleton();
+    }
+}
@@ -0,0 +1,602 @@
+package org.xbib.elasticsearch.indices.analysis.decompound;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Singleton;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.watcher.FileChangesListener;
+import org.elasticsearch.watcher.FileWatcher;
+import org.xbib.elasticsearch.index.analysis.decompound.CompiledPatriciaTrie;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompoundCache;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompoundDictionary;
+import org.xbib.elasticsearch.index.analysis.decompound.Decompounder;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompounderHolder;
+import org.xbib.elasticsearch.index.analysis.decompound.LexiconDecompounder;
+import org.xbib.elasticsearch.index.analysis.decompound.PatriciaTrie;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Node level registry of decompounders, so all indices and filters configured with the
+ * same trees, threshold and limits share a single {@link Decompounder}.
+ * <p/>
+ * Decompounders are acquired by an index and counted by the indices holding them.
+ * When the last holding index is closed, the decompounder is dropped. A decompounder is loaded
+ * by the first acquire of its configuration, outside of the registry lock, so acquires of other
+ * configurations, releases and stats do not wait for it. Concurrent acquires of the same configuration
+ * wait for the first one.
+ * <p/>
+ * Each shared decompounder has a result cache, created when the first filter with the setting
+ * <code>cache</code> uses it, bounded by the node settings
+ * <code>decompound.cache.max_size</code> (default 100000 terms, 0 disables the cache),
+ * <code>decompound.cache.expire</code> (time after last access, default none) and
+ * <code>decompound.cache.concurrency_level</code> (default 16).
+ * <p/>
+ * Trees and dictionaries in the file system are checked for changes every <code>decompound.reload.interval</code>
+ * (default 60s, 0 disables) while the service is started. When a file changes, the decompounder
+ * is reloaded on the checking thread, off the indexing threads, and swapped into its
+ * {@link DecompounderHolder}, the result cache of the new generation starts empty. Trees must be replaced
+ * by writing a new file next to them and renaming it over the old one, which is atomic on the same
+ * file system. A memory-mapped tree must never be rewritten or truncated in place: the old generation
+ * still maps the file until no token stream reads it, and reading a page cut off by truncation
+ * crashes the JVM with <code>SIGBUS</code> or fails with an {@link InternalError}. Set <code>mmap</code>
+ * to false for trees that can not be replaced by renaming.
+ * <p/>
+ * The resources of a decompounder are loaded concurrently on a dedicated pool of <code>decompound_load</code>
+ * threads, and the load time of each resource is logged. Decompounders may also be acquired lazily,
+ * so index creation does not wait for the resources to be loaded.
+ */
+@Singleton
+public class DecompounderService extends AbstractLifecycleComponent<DecompounderService> {
+
+    private final Map<String, Entry> decompounders = new HashMap<String, Entry>();
+
+    private final Set<LazyAcquire> lazyAcquires = new HashSet<LazyAcquire>();
+
+    private final long cacheMaxSize;
+
+    private final TimeValue cacheExpire;
+
+    private final int cacheConcurrencyLevel;
+
+    /**
+     * Creates the result cache of a generation for the first filter using it, or null for no cache
+     */
+    private final DecompounderHolder.CacheFactory cacheFactory;
+
+    private final TimeValue reloadInterval;
+
+    private final ExecutorService loader;
+
+    private ScheduledExecutorService scheduler;
+
+    @Inject
+    public DecompounderService(Settings settings) {
+        super(settings);
+        this.cacheMaxSize = settings.getAsLong("decompound.cache.max_size", 100000L);
+        this.cacheExpire = settings.getAsTime("decompound.cache.expire", null);
+        this.cacheConcurrencyLevel = settings.getAsInt("decompound.cache.concurrency_level", 16);
+        this.cacheFactory = cacheMaxSize > 0L ? new DecompounderHolder.CacheFactory() {
+            @Override
+            public DecompoundCache create(Decompounder decompounder) {
+                return new DecompoundCache(decompounder, cacheMaxSize, cacheExpire, cacheConcurrencyLevel);
+            }
+        } : null;
+        this.reloadInterval = settings.getAsTime("decompound.reload.interval", TimeValue.timeValueSeconds(60));
+        // unbounded, so lazy acquires waiting for their resources never starve the resource loads
+        this.loader = Executors.newCachedThreadPool(EsExecutors.daemonThreadFactory(settings, "decompound_load"));
+    }
+
+    @Override
+    protected void doStart() throws ElasticsearchException {
+        if (reloadInterval.millis() > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    EsExecutors.daemonThreadFactory(settings, "decompound_reload"));
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkAndReload();
+                }
+            }, reloadInterval.millis(), reloadInterval.millis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected void doStop() throws ElasticsearchException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    @Override
+    protected void doClose() throws ElasticsearchException {
+        loader.shutdownNow();
+        synchronized (decompounders) {
+            decompounders.clear();
+        }
+    }
+
+    /**
+     * Acquire a decompounder for an index, configured by the settings of a decompound token filter.
+     * The trees are loaded only if no other index holds a decompounder with the same configuration.
+     * <p/>
+     * The setting <code>engine</code> selects the trie engine <code>trie</code> (default) or the
+     * lexicon engine <code>lexicon</code>, see {@link LexiconDecompounder}.
+     * <p/>
+     * Settings of the trie engine are the trees <code>forward</code>, <code>backward</code> and <code>reduce</code>,
+     * <code>threshold</code>, <code>mmap</code> for memory-mapping compiled trees on the file system
+     * (default true, mapped trees must only be replaced by an atomic rename, see above),
+     * <code>prune</code> for pruning the trees on the heap at load time, see {@link CompiledPatriciaTrie#prune},
+     * and the limits <code>max_depth</code> and <code>max_parts</code>. Settings of the lexicon engine are
+     * the word forms <code>lexicon</code>, <code>linking_elements</code> and <code>min_part_length</code>.
+     * Both engines take the limit <code>max_word_length</code> and an optional <code>dictionary</code>
+     * of words with fixed parts, in source or binary form, see {@link DecompoundDictionary}.
+     *
+     * @param index    the index
+     * @param env      the environment for resolving the trees
+     * @param settings the filter settings
+     * @return the holder of the decompounder
+     */
+    public DecompounderHolder acquire(Index index, Environment env, Settings settings)
+            throws IOException, ClassNotFoundException {
+        return acquire(index, env, settings, null);
+    }
+
+    private DecompounderHolder acquire(Index index, Environment env, Settings settings, LazyAcquire lazy)
+            throws IOException, ClassNotFoundException {
+        Config config = new Config(env, settings);
+        String key = config.toString();
+        Entry entry;
+        boolean load = false;
+        synchronized (decompounders) {
+            // checked under the same lock as the release, so a released index is never added again
+            if (lazy != null && !lazyAcquires.remove(lazy)) {
+                throw new CancellationException("index [" + index.name() + "] released before its decompounder was loaded");
+            }
+            entry = decompounders.get(key);
+            if (entry == null) {
+                entry = new Entry(config);
+                decompounders.put(key, entry);
+                load = true;
+            }
+            entry.indices.add(index.name());
+        }
+        if (load) {
+            entry.loading.run();
+            if (entry.holder == null) {
+                // failed, the acquires waiting for the entry fail with the same cause
+                synchronized (decompounders) {
+                    if (decompounders.get(key) == entry) {
+                        decompounders.remove(key);
+                    }
+                }
+            }
+        }
+        return get(entry.loading);
+    }
+
+    /**
+     * Acquire a decompounder for an index like {@link #acquire(Index, Environment, Settings)}, without
+     * waiting for the resources to be loaded. If the index is released before the acquire runs,
+     * the future is cancelled and the index does not hold the decompounder.
+     *
+     * @param index    the index
+     * @param env      the environment for resolving the trees
+     * @param settings the filter settings
+     * @return the future holder of the decompounder
+     */
+    public Future<DecompounderHolder> acquireLazily(final Index index, final Environment env, final Settings settings) {
+        // fail fast on invalid settings
+        new Config(env, settings);
+        final LazyAcquire lazy = new LazyAcquire(index.name());
+        lazy.task = new FutureTask<DecompounderHolder>(new Callable<DecompounderHolder>() {
+            @Override
+            public DecompounderHolder call() throws Exception {
+                return acquire(index, env, settings, lazy);
+            }
+        });
+        synchronized (decompounders) {
+            lazyAcquires.add(lazy);
+        }
+        loader.execute(lazy.task);
+        return lazy.task;
+    }
+
+    /**
+     * Release all decompounders held by an index.
+     *
+     * @param index the index
+     */
+    public void release(Index index) {
+        synchronized (decompounders) {
+            Iterator<LazyAcquire> lazies = lazyAcquires.iterator();
+            while (lazies.hasNext()) {
+                LazyAcquire lazy = lazies.next();
+                if (lazy.index.equals(index.name())) {
+                    lazies.remove();
+                    // not interrupted, a running acquire may load resources shared with other indices
+                    lazy.task.cancel(false);
+                }
+            }
+            Iterator<Map.Entry<String, Entry>> it = decompounders.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Entry> entry = it.next();
+                if (entry.getValue().indices.remove(index.name()) && entry.getValue().indices.isEmpty()) {
+                    it.remove();
+                    logger.debug("released decompounder {}", entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the sum of hit, miss and eviction counts of all result caches
+     */
+    public CacheStats cacheStats() {
+        CacheStats stats = new CacheStats(0L, 0L, 0L, 0L, 0L, 0L);
+        synchronized (decompounders) {
+            for (Entry entry : decompounders.values()) {
+                DecompounderHolder holder = entry.holder;
+                DecompoundCache cache = holder != null ? holder.current().cache() : null;
+                if (cache != null) {
+                    stats = stats.plus(cache.stats());
+                }
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * @return the number of decompounders held
+     */
+    public int size() {
+        synchronized (decompounders) {
+            return decompounders.size();
+        }
+    }
+
+    /**
+     * Reload all decompounders now.
+     */
+    public void reload() {
+        List<Entry> entries;
+        synchronized (decompounders) {
+            entries = new ArrayList<Entry>(decompounders.values());
+        }
+        for (Entry entry : entries) {
+            if (entry.holder != null) {
+                reload(entry);
+            }
+        }
+    }
+
+    private void reload(Entry entry) {
+        synchronized (entry) {
+            long t0 = System.currentTimeMillis();
+            try {
+                Decompounder decompounder = load(entry.config);
+                long millis = System.currentTimeMillis() - t0;
+                DecompounderHolder.Generation generation = entry.holder.swap(decompounder, cacheFactory, millis);
+                logger.info("reloaded decompounder {}, generation {}, took {} ms",
+                        entry.config, generation.generation(), millis);
+            } catch (Exception e) {
+                logger.warn("failed to reload decompounder {}, keeping generation {}", e,
+                        entry.config, entry.holder.current().generation());
+            }
+        }
+    }
+
+    /**
+     * Check the trees of all decompounders for changes, and reload decompounders with changed trees.
+     */
+    private void checkAndReload() {
+        List<Entry> entries;
+        synchronized (decompounders) {
+            entries = new ArrayList<Entry>(decompounders.values());
+        }
+        for (Entry entry : entries) {
+            if (entry.holder == null) {
+                // still loading
+                continue;
+            }
+            try {
+                entry.changed = false;
+                for (FileWatcher watcher : entry.watchers) {
+                    watcher.checkAndNotify();
+                }
+                // once for changes of several trees at a time
+                if (entry.changed) {
+                    reload(entry);
+                }
+            } catch (Exception e) {
+                logger.warn("failed to check trees of decompounder {}", e, entry.config);
+            }
+        }
+    }
+
+    /**
+     * Load the resources of a decompounder concurrently.
+     */
+    private Decompounder load(final Config config) throws IOException, ClassNotFoundException {
+        long t0 = System.currentTimeMillis();
+        Future<DecompoundDictionary> dictionary = null;
+        if (config.dictionary != null) {
+            dictionary = loader.submit(new Callable<DecompoundDictionary>() {
+                @Override
+                public DecompoundDictionary call() throws Exception {
+                    long t0 = System.currentTimeMillis();
+                    DecompoundDictionary dictionary = DecompoundDictionary.load(config.dictionary.openStream());
+                    logger.debug("loaded dictionary {} in {} ms", config.dictionary, System.currentTimeMillis() - t0);
+                    return dictionary;
+                }
+            });
+        }
+        Decompounder decompounder;
+        if ("lexicon".equals(config.engine)) {
+            long t1 = System.currentTimeMillis();
+            LexiconDecompounder lexicon = LexiconDecompounder.load(config.lexicon.openStream(),
+                    config.linkingElements, config.minPartLength, config.maxWordLength, get(dictionary));
+            logger.debug("loaded lexicon {} in {} ms", config.lexicon, System.currentTimeMillis() - t1);
+            decompounder = lexicon;
+        } else {
+            Future<PatriciaTrie> forward = loadTrie(config, config.forward);
+            Future<PatriciaTrie> backward = loadTrie(config, config.backward);
+            Future<PatriciaTrie> reduce = loadTrie(config, config.reduce);
+            decompounder = new Decompounder(get(forward), get(backward), get(reduce),
+                    config.threshold, config.maxDepth, config.maxWordLength, config.maxParts, get(dictionary));
+        }
+        logger.debug("loaded decompounder {} in {} ms", config, System.currentTimeMillis() - t0);
+        return decompounder;
+    }
+
+    private Future<PatriciaTrie> loadTrie(final Config config, final URL url) {
+        return loader.submit(new Callable<PatriciaTrie>() {
+            @Override
+            public PatriciaTrie call() throws Exception {
+                long t0 = System.currentTimeMillis();
+                PatriciaTrie trie = PatriciaTrie.load(url, config.mmap);
+                logger.debug("loaded tree {} in {} ms", url, System.currentTimeMillis() - t0);
+                if (config.prune > 0.0) {
+                    trie.setThreshold(config.threshold);
+                    PatriciaTrie pruned = CompiledPatriciaTrie.prune(trie, config.prune);
+                    logger.info("pruned tree {} with agreement {}: {} -> {} nodes, {} -> {} edges, {} -> {} bytes",
+                            url, config.prune, trie.getNodeCount(), pruned.getNodeCount(),
+                            trie.getEdgeCount(), pruned.getEdgeCount(), trie.getTableSize(), pruned.getTableSize());
+                    return pruned;
+                }
+                return trie;
+            }
+        });
+    }
+
+    /**
+     * @return the loaded resource, or null if there is no future
+     */
+    private static <T> T get(Future<T> future) throws IOException, ClassNotFoundException {
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while loading decompound resources");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ElasticsearchException("failed to load decompound resources", cause);
+        }
+    }
+
+    private void watch(final Entry entry) {
+        FileChangesListener listener = new FileChangesListener() {
+            @Override
+            public void onFileCreated(File file) {
+                entry.changed = true;
+            }
+
+            @Override
+            public void onFileChanged(File file) {
+                entry.changed = true;
+            }
+        };
+        for (File file : entry.config.files()) {
+            FileWatcher watcher = new FileWatcher(file);
+            watcher.addListener(listener);
+            watcher.init();
+            entry.watchers.add(watcher);
+        }
+    }
+
+    private class Entry {
+
+        final Config config;
+
+        /**
+         * Loads the decompounder, run by the first acquire of the entry
+         */
+        final FutureTask<DecompounderHolder> loading;
+
+        /**
+         * The holder of the decompounder, null while loading or if loading failed
+         */
+        volatile DecompounderHolder holder;
+
+        final Set<String> indices = new HashSet<String>();
+
+        final List<FileWatcher> watchers = new ArrayList<FileWatcher>();
+
+        boolean changed;
+
+        Entry(final Config config) {
+            this.config = config;
+            this.loading = new FutureTask<DecompounderHolder>(new Callable<DecompounderHolder>() {
+                @Override
+                public DecompounderHolder call() throws Exception {
+                    // the files are watched from before they are read, so a tree replaced while
+                    // loading is reloaded by the first check after the load
+                    watch(Entry.this);
+                    long t0 = System.currentTimeMillis();
+                    Decompounder decompounder = load(config);
+                    DecompounderHolder holder = new DecompounderHolder(decompounder, cacheFactory,
+                            System.currentTimeMillis() - t0);
+                    Entry.this.holder = holder;
+                    return holder;
+                }
+            });
+        }
+    }
+
+    /**
+     * A lazy acquire not yet run, cancelled by a release of its index.
+     */
+    private static class LazyAcquire {
+
+        final String index;
+
+        FutureTask<DecompounderHolder> task;
+
+        LazyAcquire(String index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * The configuration of a decompounder, resolved from filter settings.
+     */
+    private static class Config {
+
+        final String engine;
+
+        final URL forward;
+
+        final URL backward;
+
+        final URL reduce;
+
+        final double threshold;
+
+        final boolean mmap;
+
+        final double prune;
+
+        final int maxDepth;
+
+        final int maxWordLength;
+
+        final int maxParts;
+
+        final URL dictionary;
+
+        final URL lexicon;
+
+        final String[] linkingElements;
+
+        final int minPartLength;
+
+        Config(Environment env, Settings settings) {
+            this.engine = settings.get("engine", "trie");
+            if (!"trie".equals(engine) && !"lexicon".equals(engine)) {
+                throw new ElasticsearchIllegalArgumentException("unknown decompound engine: " + engine);
+            }
+            boolean trie = "trie".equals(engine);
+            this.forward = trie ? env.resolveConfig(settings.get("forward", "/decompound/kompVVic.tree")) : null;
+            this.backward = trie ? env.resolveConfig(settings.get("backward", "/decompound/kompVHic.tree")) : null;
+            this.reduce = trie ? env.resolveConfig(settings.get("reduce", "/decompound/grfExt.tree")) : null;
+            this.threshold = settings.getAsDouble("threshold", 0.51);
+            this.mmap = settings.getAsBoolean("mmap", true);
+            this.prune = settings.getAsDouble("prune", 0.0);
+            if (prune < 0.0 || prune > 1.0) {
+                throw new ElasticsearchIllegalArgumentException("decompound prune must be between 0 and 1: " + prune);
+            }
+            this.maxDepth = settings.getAsInt("max_depth", Decompounder.DEFAULT_MAX_DEPTH);
+            this.maxWordLength = settings.getAsInt("max_word_length", Decompounder.DEFAULT_MAX_WORD_LENGTH);
+            this.maxParts = settings.getAsInt("max_parts", Decompounder.DEFAULT_MAX_PARTS);
+            String dictionary = settings.get("dictionary");
+            this.dictionary = dictionary != null ? env.resolveConfig(dictionary) : null;
+            String lexicon = settings.get("lexicon");
+            if ("lexicon".equals(engine) && lexicon == null) {
+                throw new ElasticsearchIllegalArgumentException("decompound engine lexicon requires a lexicon");
+            }
+            this.lexicon = lexicon != null ? env.resolveConfig(lexicon) : null;
+            this.linkingElements = settings.getAsArray("linking_elements", LexiconDecompounder.DEFAULT_LINKING_ELEMENTS);
+            this.minPartLength = settings.getAsInt("min_part_length", LexiconDecompounder.DEFAULT_MIN_PART_LENGTH);
+        }
+
+        /**
+         * @return the trees or the lexicon, and the dictionary in the file system, which can be watched
+         */
+        List<File> files() {
+            List<File> files = new ArrayList<File>();
+            URL[] urls = "lexicon".equals(engine) ? new URL[]{lexicon, dictionary}
+                    : new URL[]{forward, backward, reduce, dictionary};
+            for (URL url : urls) {
+                if (url != null && "file".equals(url.getProtocol())) {
+                    try {
+                        files.add(new File(url.toURI()));
+                    } catch (URISyntaxException e) {
+                        files.add(new File(url.getPath()));
+                    }
+                }
+            }
+            return files;
+        }
+
+        /**
+         * The key of shared decompounders. URLs are compared by external form, URL.equals() may resolve host names.
+         */
+        @Override
+        public String toString() {
+            if ("lexicon".equals(engine)) {
+                return "[lexicon=" + lexicon.toExternalForm() + ",linking_elements=" + Arrays.toString(linkingElements)
+                        + ",min_part_length=" + minPartLength + ",max_word_length=" + maxWordLength
+                        + (dictionary != null ? ",dictionary=" + dictionary.toExternalForm() : "") + "]";
+            }
+            return "[" + forward.toExternalForm() + "," + backward.toExternalForm() + "," + reduce.toExternalForm()
+                    + ",threshold=" + threshold + ",mmap=" + mmap + (prune > 0.0 ? ",prune=" + prune : "")
+                    + ",max_depth=" + maxDepth
+                    + ",max_word_length=" + maxWordLength + ",max_parts=" + maxParts
+                    + (dictionary != null ? ",dictionary=" + dictionary.toExternalForm() : "") + "]";
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.xbib.elasticsearch.indices.analysis.stats;
+
+import org.elasticsearch.common.inject.AbstractModule;
+
+public class TokenFilterStatsModule extends AbstractModule {
+
+    @Override
+    protected void configure() {
+        bind(TokenFilterStatsService.class).asEagerSingleton();
+    }
+}
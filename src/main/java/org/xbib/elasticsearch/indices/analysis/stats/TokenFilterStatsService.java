@@ -0,0 +1,121 @@
+package org.xbib.elasticsearch.indices.analysis.stats;
+
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.inject.Singleton;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.Index;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Node level registry of the {@link TokenFilterStats} of the named token filters of all indices.
+ * <p/>
+ * Stats are registered by the filter factories of an index, a filter of the same name of the same index
+ * shares its stats. The stats of an index are dropped when the index is closed.
+ */
+@Singleton
+public class TokenFilterStatsService extends AbstractComponent implements ToXContent {
+
+    /**
+     * Stats by index name, then by filter name
+     */
+    private final Map<String, Map<String, TokenFilterStats>> stats = new TreeMap<String, Map<String, TokenFilterStats>>();
+
+    @Inject
+    public TokenFilterStatsService(Settings settings) {
+        super(settings);
+    }
+
+    /**
+     * Register the stats of a token filter.
+     *
+     * @param index     the index
+     * @param filter    the name of the filter
+     * @param type      the type of the filter
+     * @param resources the resources of the filter, or null
+     * @return the stats of the filter
+     */
+    public TokenFilterStats register(Index index, String filter, String type, TokenFilterStats.Resources resources) {
+        return register(index, filter, type, resources, null);
+    }
+
+    /**
+     * Register the stats of a token filter with a budget.
+     *
+     * @param index     the index
+     * @param filter    the name of the filter
+     * @param type      the type of the filter
+     * @param resources the resources of the filter, or null
+     * @param budget    the budget of the filter, or null
+     * @return the stats of the filter
+     */
+    public TokenFilterStats register(Index index, String filter, String type, TokenFilterStats.Resources resources,
+                                     TokenBudget budget) {
+        synchronized (stats) {
+            Map<String, TokenFilterStats> filters = stats.get(index.name());
+            if (filters == null) {
+                filters = new TreeMap<String, TokenFilterStats>();
+                stats.put(index.name(), filters);
+            }
+            TokenFilterStats filterStats = filters.get(filter);
+            if (filterStats == null) {
+                filterStats = new TokenFilterStats(index.name(), filter, type, resources, budget);
+                filters.put(filter, filterStats);
+            }
+            return filterStats;
+        }
+    }
+
+    /**
+     * Drop the stats of an index.
+     *
+     * @param index the index
+     */
+    public void release(Index index) {
+        synchronized (stats) {
+            stats.remove(index.name());
+        }
+    }
+
+    /**
+     * @return the stats of all filters
+     */
+    public List<TokenFilterStats> stats() {
+        List<TokenFilterStats> list = new ArrayList<TokenFilterStats>();
+        synchronized (stats) {
+            for (Map<String, TokenFilterStats> filters : stats.values()) {
+                list.addAll(filters.values());
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        List<TokenFilterStats> list = stats();
+        builder.startObject("indices");
+        Iterator<TokenFilterStats> it = list.iterator();
+        TokenFilterStats next = it.hasNext() ? it.next() : null;
+        while (next != null) {
+            String index = next.index();
+            builder.startObject(index);
+            while (next != null && index.equals(next.index())) {
+                next.toXContent(builder, params);
+                next = it.hasNext() ? it.next() : null;
+            }
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+}
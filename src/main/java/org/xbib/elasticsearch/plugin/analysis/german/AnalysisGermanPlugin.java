@@ -3,12 +3,17 @@ package org.xbib.elasticsearch.plugin.analysis.german;
 import org.elasticsearch.common.collect.ImmutableList;
 import org.elasticsearch.common.component.LifecycleComponent;
 import org.elasticsearch.common.inject.Module;
+import org.elasticsearch.index.CloseableIndexComponent;
 import org.elasticsearch.index.analysis.AnalysisModule;
 import org.elasticsearch.plugins.AbstractPlugin;
+import org.elasticsearch.rest.RestModule;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStatsIndexComponent;
+import org.xbib.elasticsearch.index.analysis.baseform.BaseformIndexComponent;
 import org.xbib.elasticsearch.index.analysis.baseform.BaseformTokenFilterFactory;
 import org.xbib.elasticsearch.index.analysis.combo.ComboAnalysisBinderProcessor;
 import org.xbib.elasticsearch.index.analysis.concat.ConcatTokenFilterFactory;
 import org.xbib.elasticsearch.index.analysis.decompound.DecompoundTokenFilterFactory;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompounderIndexComponent;
 import org.xbib.elasticsearch.index.analysis.german.GermanNormalizationFilterFactory;
 import org.xbib.elasticsearch.index.analysis.icu.IcuAnalysisBinderProcessor;
 import org.xbib.elasticsearch.index.analysis.langdetect.LangdetectModule;
@@ -18,7 +23,12 @@ import org.xbib.elasticsearch.index.analysis.sortform.SortformTokenFilterFactory
 import org.xbib.elasticsearch.index.analysis.worddelimiter.WordDelimiterFilter2Factory;
 import org.xbib.elasticsearch.index.analysis.worddelimiter.WordDelimiterFilterFactory;
 import org.xbib.elasticsearch.index.analysis.year.GregorianYearTokenFilterFactory;
+import org.xbib.elasticsearch.indices.analysis.baseform.BaseformIndicesAnalysisModule;
+import org.xbib.elasticsearch.indices.analysis.decompound.DecompoundIndicesAnalysisModule;
+import org.xbib.elasticsearch.indices.analysis.decompound.DecompounderService;
 import org.xbib.elasticsearch.indices.analysis.icu.IcuIndicesAnalysisModule;
+import org.xbib.elasticsearch.indices.analysis.stats.TokenFilterStatsModule;
+import org.xbib.elasticsearch.rest.action.analysis.RestTokenFilterStatsAction;
 
 import java.util.Collection;
 
@@ -40,7 +50,9 @@ public class AnalysisGermanPlugin extends AbstractPlugin {
 
     @Override
     public Collection<Class<? extends Module>> modules() {
-        return ImmutableList.<Class<? extends Module>>of(IcuIndicesAnalysisModule.class);
+        return ImmutableList.<Class<? extends Module>>of(IcuIndicesAnalysisModule.class,
+                DecompoundIndicesAnalysisModule.class, BaseformIndicesAnalysisModule.class,
+                TokenFilterStatsModule.class);
     }
 
     /**
@@ -60,10 +72,18 @@ public class AnalysisGermanPlugin extends AbstractPlugin {
         module.addTokenFilter("year", GregorianYearTokenFilterFactory.class);
     }
 
+    /**
+     * Automatically called with the REST module.
+     */
+    public void onModule(RestModule module) {
+        module.addRestAction(RestTokenFilterStatsAction.class);
+    }
+
     @Override
     public Collection<Class<? extends LifecycleComponent>> services() {
         Collection<Class<? extends LifecycleComponent>> services = newArrayList();
         services.add(LangdetectService.class);
+        services.add(DecompounderService.class);
         return services;
     }
 
@@ -74,4 +94,13 @@ public class AnalysisGermanPlugin extends AbstractPlugin {
         return modules;
     }
 
+    @Override
+    public Collection<Class<? extends CloseableIndexComponent>> indexServices() {
+        Collection<Class<? extends CloseableIndexComponent>> services = newArrayList();
+        services.add(DecompounderIndexComponent.class);
+        services.add(BaseformIndexComponent.class);
+        services.add(TokenFilterStatsIndexComponent.class);
+        return services;
+    }
+
 }
@@ -0,0 +1,52 @@
+package org.xbib.elasticsearch.rest.action.analysis;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.xbib.elasticsearch.indices.analysis.stats.TokenFilterStatsService;
+
+import java.io.IOException;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+import static org.elasticsearch.rest.RestStatus.OK;
+
+/**
+ * Returns the stats of the decompound and baseform filters of this node, by index and filter name.
+ * <p/>
+ * <code>GET /_analysis/german/stats</code>
+ */
+public class RestTokenFilterStatsAction extends BaseRestHandler {
+
+    private final TokenFilterStatsService statsService;
+
+    @Inject
+    public RestTokenFilterStatsAction(Settings settings, Client client, RestController controller,
+                                      TokenFilterStatsService statsService) {
+        super(settings, client);
+        this.statsService = statsService;
+        controller.registerHandler(GET, "/_analysis/german/stats", this);
+    }
+
+    @Override
+    public void handleRequest(RestRequest request, RestChannel channel) {
+        try {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            statsService.toXContent(builder, request);
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(OK, builder));
+        } catch (IOException e) {
+            try {
+                channel.sendResponse(new BytesRestResponse(channel, e));
+            } catch (IOException e1) {
+                logger.error("failed to send failure response", e1);
+            }
+        }
+    }
+}
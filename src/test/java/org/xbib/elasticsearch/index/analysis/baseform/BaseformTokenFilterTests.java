@@ -4,6 +4,8 @@ import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.Tokenizer;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
 import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.TypeAttribute;
 import org.apache.lucene.util.Version;
 
 import org.elasticsearch.common.inject.Injector;
@@ -23,15 +25,35 @@ import org.elasticsearch.indices.analysis.IndicesAnalysisModule;
 import org.elasticsearch.indices.analysis.IndicesAnalysisService;
 
 import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
 import org.xbib.elasticsearch.plugin.analysis.german.AnalysisGermanPlugin;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
 
 public class BaseformTokenFilterTests extends Assert {
 
+    private static Dictionary dictionary;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        dictionary = new Dictionary().load(new InputStreamReader(
+                BaseformTokenFilterTests.class.getResourceAsStream("/baseform/en-lemma-utf8.txt"), "UTF-8"));
+    }
+
     @Test
     public void testOne() throws IOException {
         AnalysisService analysisService = createAnalysisService();
@@ -95,6 +117,106 @@ public class BaseformTokenFilterTests extends Assert {
         assertSimpleTSOutput(tokenFilter.create(tokenizer), expected);
     }
 
+    @Test
+    public void testReusedStream() throws IOException {
+        Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_4_9, new StringReader("the children went"));
+        TokenStream stream = new BaseformTokenFilter(tokenizer, dictionary);
+        String[] expected = {"the", "the", "children", "child", "went", "go"};
+        for (int n = 0; n < 2; n++) {
+            stream.reset();
+            CharTermAttribute termAttr = stream.getAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posIncAttr = stream.getAttribute(PositionIncrementAttribute.class);
+            TypeAttribute typeAttr = stream.getAttribute(TypeAttribute.class);
+            for (int i = 0; i < expected.length; i++) {
+                assertTrue(stream.incrementToken());
+                assertEquals(expected[i], termAttr.toString());
+                assertEquals(i % 2 == 0 ? 1 : 0, posIncAttr.getPositionIncrement());
+                assertEquals(StandardTokenizer.TOKEN_TYPES[StandardTokenizer.ALPHANUM], typeAttr.type());
+            }
+            assertFalse(stream.incrementToken());
+            stream.end();
+            stream.close();
+            tokenizer.setReader(new StringReader("the children went"));
+        }
+    }
+
+    @Test
+    public void testCyclicLemmas() throws IOException {
+        Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_4_9,
+                new StringReader("necropolis necropoleis necropoli"));
+        // necropolis and necropoli are the lemmas of each other
+        String[] expected = {"necropolis", "necropoli", "necropoleis", "necropoli", "necropoli", "necropolis"};
+        assertSimpleTSOutput(new BaseformTokenFilter(tokenizer, dictionary), expected);
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        TokenFilterStats stats = new TokenFilterStats("test", "baseform", "baseform", null);
+        Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_4_9, new StringReader("children xyzzy"));
+        TokenStream stream = new BaseformTokenFilter(tokenizer, dictionary, null, stats);
+        stream.reset();
+        while (stream.incrementToken()) {
+            // consume
+        }
+        stream.end();
+        stream.close();
+        assertEquals(2L, stats.tokensIn());
+        assertEquals(4L, stats.tokensOut());
+        // xyzzy is emitted as its own base form, but it is not in the dictionary
+        assertEquals(1L, stats.hits());
+    }
+
+    @Test
+    public void testCompiled() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        dictionary.write(out);
+        assertEquals(ConstantArcSizeFSA.HEADER_SIZE + dictionary.sizeInBytes(), out.size());
+        Dictionary compiled = new Dictionary().load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(dictionary.sizeInBytes(), compiled.sizeInBytes());
+        for (String word : new String[]{"the", "children", "went", "mice", "xyzzy", ""}) {
+            assertEquals(word, dictionary.lookup(word), compiled.lookup(word));
+        }
+        // lemma lists are still loaded from streams
+        Dictionary text = new Dictionary().load(getClass().getResourceAsStream("/baseform/en-lemma-utf8.txt"));
+        assertEquals("child", text.lookup("children"));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        File file = File.createTempFile("en-lemma", ".fsa");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            dictionary.write(out);
+        } finally {
+            out.close();
+        }
+        assertTrue(MappedConstantArcSizeFSA.isCompiled(file));
+        Dictionary mapped = new Dictionary().load(file.toURI().toURL(), true);
+        assertEquals(dictionary.sizeInBytes(), mapped.sizeInBytes());
+        for (String word : new String[]{"the", "children", "went", "mice", "xyzzy", ""}) {
+            assertEquals(word, dictionary.lookup(word), mapped.lookup(word));
+        }
+        // a direct buffer walks the same arcs as the heap automaton
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        FSA direct = new MappedConstantArcSizeFSA(buffer);
+        FSA heap = ConstantArcSizeFSA.read(new ByteArrayInputStream(bytes));
+        Iterator<ByteBuffer> expected = heap.iterator();
+        Iterator<ByteBuffer> actual = direct.iterator();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(actual.hasNext());
+            assertEquals(expected.next(), actual.next());
+        }
+    }
+
     private AnalysisService createAnalysisService() {
         Settings settings = ImmutableSettings.settingsBuilder()
                 .loadFromClasspath("org/xbib/elasticsearch/index/analysis/baseform_de.json").build();
@@ -0,0 +1,77 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the automaton formats {@link ConstantArcSizeFSA}, with and without jump tables,
+ * and {@link VariableArcSizeFSA} in size and in lookup throughput.
+ * <p/>
+ * Usage: <code>FSABenchmark [lemmas]</code> with a UTF-8 lemma list. Without a lemma list,
+ * the shipped English lemma list is used.
+ */
+public class FSABenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        InputStream in = args.length > 0 ? new FileInputStream(args[0]) :
+                FSABenchmark.class.getResourceAsStream("/baseform/en-lemma-utf8.txt");
+        List<byte[]> lines = new ArrayList<byte[]>();
+        List<byte[]> words = new ArrayList<byte[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.replace('\t', '+').getBytes("UTF-8"));
+                int tab = line.indexOf('\t');
+                words.add((tab >= 0 ? line.substring(0, tab + 1).replace('\t', '+') : line).getBytes("UTF-8"));
+            }
+        } finally {
+            reader.close();
+        }
+        Collections.sort(lines, FSABuilder.LEXICAL_ORDERING);
+        long t0 = System.nanoTime();
+        FSA constant = FSABuilder.build(lines);
+        long t1 = System.nanoTime();
+        FSA variable = VariableArcSizeFSA.compile(constant);
+        long t2 = System.nanoTime();
+        FSABuilder builder = new FSABuilder();
+        for (byte[] line : lines) {
+            builder.add(line, 0, line.length);
+        }
+        FSA linear = builder.complete(0);
+        System.out.println("sequences=" + lines.size()
+                + " build=" + (t1 - t0) / 1000000L + "ms compile=" + (t2 - t1) / 1000000L + "ms");
+        System.out.println("size constant=" + constant.sizeInBytes() + " linear=" + linear.sizeInBytes()
+                + " variable=" + variable.sizeInBytes()
+                + " ratio=" + String.format("%.2f", (double) constant.sizeInBytes() / variable.sizeInBytes()));
+        // the words followed by the separator, the prefixes looked up by the dictionary
+        Collections.shuffle(words);
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + round + " constant=" + throughput(constant, words) + " lookups/s"
+                    + " linear=" + throughput(linear, words) + " lookups/s"
+                    + " variable=" + throughput(variable, words) + " lookups/s");
+        }
+    }
+
+    private static long throughput(FSA fsa, List<byte[]> words) {
+        FSATraversal traversal = new FSATraversal(fsa);
+        MatchResult result = new MatchResult();
+        long n = 0;
+        long t0 = System.nanoTime();
+        for (byte[] word : words) {
+            n += traversal.match(result, word, 0, word.length, fsa.getRootNode()).kind;
+        }
+        long t1 = System.nanoTime();
+        if (n == Long.MIN_VALUE) {
+            throw new IllegalStateException();
+        }
+        return words.size() * 1000000000L / Math.max(1L, t1 - t0);
+    }
+}
@@ -0,0 +1,157 @@
+package org.xbib.elasticsearch.index.analysis.baseform;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+public class FSATests extends Assert {
+
+    private static Dictionary dictionary;
+
+    @BeforeClass
+    public static void load() throws IOException {
+        dictionary = new Dictionary().load(new InputStreamReader(
+                FSATests.class.getResourceAsStream("/baseform/en-lemma-utf8.txt"), "UTF-8"));
+    }
+
+    private List<byte[]> lemmas() throws IOException {
+        List<byte[]> lines = new ArrayList<byte[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/baseform/en-lemma-utf8.txt"), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.replace('\t', '+').getBytes("UTF-8"));
+            }
+        } finally {
+            reader.close();
+        }
+        Collections.sort(lines, FSABuilder.LEXICAL_ORDERING);
+        return lines;
+    }
+
+    private void assertSameLanguage(FSA expected, FSA actual) {
+        Iterator<ByteBuffer> e = expected.iterator();
+        Iterator<ByteBuffer> a = actual.iterator();
+        while (e.hasNext()) {
+            assertTrue(a.hasNext());
+            assertEquals(e.next(), a.next());
+        }
+        assertFalse(a.hasNext());
+    }
+
+    @Test
+    public void testVariableArcSize() throws IOException {
+        List<byte[]> lines = lemmas();
+        FSA constant = FSABuilder.build(lines);
+        for (int threshold : new int[]{1, VariableArcSizeFSA.DEFAULT_INDEX_THRESHOLD, 1000}) {
+            FSA variable = VariableArcSizeFSA.compile(constant, threshold);
+            assertSameLanguage(constant, variable);
+            FSATraversal traversal = new FSATraversal(variable);
+            for (byte[] line : lines) {
+                assertEquals(MatchResult.EXACT_MATCH, traversal.match(line).kind);
+            }
+            assertEquals(MatchResult.NO_MATCH, traversal.match("xyzzy".getBytes("UTF-8")).kind);
+        }
+        VariableArcSizeFSA variable = VariableArcSizeFSA.compile(constant);
+        assertTrue(variable.sizeInBytes() * 2 < constant.sizeInBytes());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        variable.write(out);
+        assertEquals(VariableArcSizeFSA.HEADER_SIZE + variable.sizeInBytes(), out.size());
+        assertSameLanguage(constant, VariableArcSizeFSA.read(new ByteArrayInputStream(out.toByteArray())));
+    }
+
+    @Test
+    public void testJumpTables() throws IOException {
+        List<byte[]> lines = lemmas();
+        FSA linear = build(lines, 0);
+        for (int fanout : new int[]{1, FSABuilder.DEFAULT_JUMP_TABLE_FANOUT}) {
+            FSA tables = build(lines, fanout);
+            assertTrue(tables.sizeInBytes() > linear.sizeInBytes());
+            assertSameLanguage(linear, tables);
+            FSATraversal traversal = new FSATraversal(tables);
+            for (byte[] line : lines) {
+                assertEquals(MatchResult.EXACT_MATCH, traversal.match(line).kind);
+            }
+            // labels without an arc in a state with a jump table
+            int root = tables.getRootNode();
+            for (int label = 0; label < 256; label++) {
+                int arc = tables.getArc(root, (byte) label);
+                assertEquals(linear.getArc(linear.getRootNode(), (byte) label) != 0, arc != 0);
+                if (arc != 0) {
+                    assertEquals((byte) label, tables.getArcLabel(arc));
+                }
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((ConstantArcSizeFSA) build(lines, 1)).write(out);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(out.size());
+        buffer.put(out.toByteArray());
+        FSA mapped = new MappedConstantArcSizeFSA(buffer);
+        assertSameLanguage(linear, mapped);
+        FSATraversal traversal = new FSATraversal(mapped);
+        for (byte[] line : lines) {
+            assertEquals(MatchResult.EXACT_MATCH, traversal.match(line).kind);
+        }
+        assertEquals(MatchResult.NO_MATCH, traversal.match("xyzzy".getBytes("UTF-8")).kind);
+    }
+
+    private static FSA build(List<byte[]> lines, int jumpTableFanout) {
+        FSABuilder builder = new FSABuilder();
+        for (byte[] line : lines) {
+            builder.add(line, 0, line.length);
+        }
+        return builder.complete(jumpTableFanout);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        FSA variable = VariableArcSizeFSA.compile(FSABuilder.build(new byte[0][]));
+        assertFalse(variable.iterator().hasNext());
+        assertEquals(MatchResult.NO_MATCH, new FSATraversal(variable).match("a".getBytes("UTF-8")).kind);
+    }
+
+    @Test
+    public void testDictionary() throws IOException {
+        Dictionary variable = new Dictionary().load(new InputStreamReader(
+                getClass().getResourceAsStream("/baseform/en-lemma-utf8.txt"), "UTF-8"), true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        variable.write(out);
+        Dictionary compiled = new Dictionary().load(new ByteArrayInputStream(out.toByteArray()));
+        for (String word : new String[]{"the", "children", "went", "mice", "xyzzy", ""}) {
+            assertEquals(word, dictionary.lookup(word), variable.lookup(word));
+            assertEquals(word, dictionary.lookup(word), compiled.lookup(word));
+        }
+    }
+
+    @Test
+    public void testDictionaryLookup() throws IOException {
+        DictionaryLookup lookup = new DictionaryLookup(dictionary);
+        for (String word : new String[]{"the", "children", "went", "mice", "xyzzy", "Ökosteuer", "a"}) {
+            byte[] bytes = ("_" + word).getBytes("UTF-8");
+            int length = lookup.lookup(bytes, 1, bytes.length - 1);
+            String baseform = length < 0 ? word : new String(lookup.bytes(), 0, length, "UTF-8");
+            assertEquals(word, dictionary.lookup(word), baseform);
+        }
+        // necropolis and necropoli are the lemmas of each other, chains into the cycle end in it
+        for (String word : new String[]{"necropolis", "necropoleis", "necropolises"}) {
+            byte[] bytes = word.getBytes("UTF-8");
+            int length = lookup.lookup(bytes, 0, bytes.length);
+            assertEquals(word, "necropoli", new String(lookup.bytes(), 0, length, "UTF-8"));
+        }
+        byte[] bytes = "necropoli".getBytes("UTF-8");
+        int length = lookup.lookup(bytes, 0, bytes.length);
+        assertEquals("necropolis", new String(lookup.bytes(), 0, length, "UTF-8"));
+    }
+}
@@ -0,0 +1,90 @@
+package org.xbib.elasticsearch.index.analysis.concat;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ConcatTokenFilterTests extends Assert {
+
+    @Test
+    public void testPhrases() throws IOException {
+        Alternatives input = new Alternatives();
+        input.set(new String[]{"a", "b", "c", "d"}, new int[]{1, 0, 1, 0});
+        assertEquals(Arrays.asList("a c", "a d", "b c", "b d"), phrases(new ConcatTokenFilter(input)));
+    }
+
+    @Test
+    public void testBudget() throws IOException {
+        // two positions of two alternatives are 4 tokens and 4 phrases
+        TokenBudget budget = new TokenBudget("test", "concat", 5L);
+        Alternatives input = new Alternatives();
+        ConcatTokenFilter filter = new ConcatTokenFilter(input, budget);
+        input.set(new String[]{"a", "b", "c", "d"}, new int[]{1, 0, 1, 0});
+        // only the first alternative of each position is combined
+        assertEquals(Arrays.asList("a c"), phrases(filter));
+        assertEquals(1L, budget.exceeded());
+        // the reused filter meters the next stream from zero
+        input.set(new String[]{"a", "b"}, new int[]{1, 0});
+        assertEquals(Arrays.asList("a", "b"), phrases(filter));
+        assertEquals(1L, budget.exceeded());
+    }
+
+    private static List<String> phrases(TokenStream stream) throws IOException {
+        CharTermAttribute termAttr = stream.getAttribute(CharTermAttribute.class);
+        List<String> phrases = new ArrayList<String>();
+        stream.reset();
+        while (stream.incrementToken()) {
+            phrases.add(termAttr.toString());
+        }
+        stream.end();
+        stream.close();
+        return phrases;
+    }
+
+    /**
+     * Replays terms with their position increments, alternatives have an increment of 0.
+     */
+    private static final class Alternatives extends TokenStream {
+
+        private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+
+        private final PositionIncrementAttribute posIncAttr = addAttribute(PositionIncrementAttribute.class);
+
+        private String[] terms;
+
+        private int[] increments;
+
+        private int index;
+
+        void set(String[] terms, int[] increments) {
+            this.terms = terms;
+            this.increments = increments;
+        }
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            if (index >= terms.length) {
+                return false;
+            }
+            clearAttributes();
+            termAttr.append(terms[index]);
+            posIncAttr.setPositionIncrement(increments[index]);
+            index++;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            index = 0;
+        }
+    }
+}
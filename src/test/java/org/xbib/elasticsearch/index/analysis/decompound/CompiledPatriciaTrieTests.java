@@ -0,0 +1,186 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class CompiledPatriciaTrieTests extends Assert {
+
+    private final static String[] WORDS = {
+            "jahresfeier", "jahr", "feier", "rechtsanwalt", "rechtsanwaltskanzlei", "kanzlei",
+            "donaudampfschiff", "dampfschiff", "schiff", "dampf", "donau", "steuer", "ökosteuer",
+            "haus", "haustür", "hausaufgabe", "aufgabe", "tür", "türschloss", "schloss"
+    };
+
+    private final static String[] CLASSES = {"4", "5s", "3", "6es", "2"};
+
+    @Test
+    public void testCompiledClassifiesLikeStringTree() throws Exception {
+        for (boolean reverse : new boolean[]{false, true}) {
+            CompactPatriciaTrie trie = reload(train(reverse));
+            trie.setThreshold(0.51);
+            CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+            for (String word : probes()) {
+                assertEquals(word, trie.classify(word), compiled.classify(word));
+            }
+        }
+    }
+
+    @Test
+    public void testThresholdChange() throws Exception {
+        CompactPatriciaTrie trie = reload(train(false));
+        CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+        for (double threshold : new double[]{0.0, 0.3, 0.51, 0.75, 1.0}) {
+            trie.setThreshold(threshold);
+            compiled.setThreshold(threshold);
+            for (String word : probes()) {
+                assertEquals(word + " " + threshold, trie.classify(word), compiled.classify(word));
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        CompactPatriciaTrie trie = reload(train(false));
+        trie.setThreshold(0.3);
+        CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compiled.write(out);
+        CompiledPatriciaTrie read = CompiledPatriciaTrie.load(new ByteArrayInputStream(out.toByteArray()));
+        read.setThreshold(0.3);
+        assertEquals(compiled.getNodeCount(), read.getNodeCount());
+        assertEquals(compiled.getEdgeCount(), read.getEdgeCount());
+        for (String word : probes()) {
+            assertEquals(word, compiled.classify(word), read.classify(word));
+        }
+    }
+
+    @Test
+    public void testMapped() throws Exception {
+        CompactPatriciaTrie trie = reload(train(true));
+        trie.setThreshold(0.51);
+        CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+        File file = File.createTempFile("trie", ".bin");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        compiled.write(out);
+        out.close();
+        assertTrue(MappedPatriciaTrie.isCompiled(file));
+        PatriciaTrie mapped = PatriciaTrie.load(file.toURI().toURL(), true);
+        assertTrue(mapped instanceof MappedPatriciaTrie);
+        mapped.setThreshold(0.51);
+        assertEquals(compiled.getNodeCount(), mapped.getNodeCount());
+        assertEquals(compiled.getEdgeCount(), mapped.getEdgeCount());
+        for (String word : probes()) {
+            assertEquals(word, compiled.classify(word), mapped.classify(word));
+        }
+    }
+
+    @Test
+    public void testLoadSerializedTree() throws Exception {
+        CompactPatriciaTrie trie = train(false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trie.save(out);
+        CompiledPatriciaTrie compiled = CompiledPatriciaTrie.load(new ByteArrayInputStream(out.toByteArray()));
+        assertTrue(compiled.getNodeCount() > WORDS.length);
+    }
+
+    @Test
+    public void testSortedBatch() throws Exception {
+        for (boolean reverse : new boolean[]{false, true}) {
+            CompactPatriciaTrie trie = reload(train(reverse));
+            CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(trie);
+            compiled.setThreshold(0.3);
+            List<String> words = new ArrayList<String>(probes());
+            for (String first : WORDS) {
+                for (String second : WORDS) {
+                    for (String suffix : new String[]{"", "<", "s", "s<", "en", "en<", "es<", "e", "er<", "n<", "x"}) {
+                        words.add(first + second + suffix);
+                    }
+                }
+            }
+            List<String> shuffled = new ArrayList<String>(words);
+            Collections.shuffle(shuffled, new Random(1L));
+            Collections.sort(words);
+            for (List<String> list : Arrays.asList(words, shuffled)) {
+                int[] ids = compiled.classify(list.iterator());
+                int[] parallel = compiled.classify(list, 3);
+                assertEquals(list.size(), ids.length);
+                for (int i = 0; i < list.size(); i++) {
+                    String expected = compiled.classify(list.get(i));
+                    assertEquals(list.get(i), expected, ids[i] < 0 ? PatriciaTrie.UNDECIDED : compiled.getClassName(ids[i]));
+                    assertEquals(list.get(i), ids[i], parallel[i]);
+                }
+            }
+            PatriciaTrie.Cursor cursor = compiled.cursor();
+            for (String word : words) {
+                char[] buffer = ("x" + word).toCharArray();
+                assertEquals(word, compiled.classify(buffer, 1, word.length(), true, true),
+                        cursor.classify(buffer, 1, word.length(), true, true));
+            }
+        }
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        for (boolean reverse : new boolean[]{false, true}) {
+            CompiledPatriciaTrie compiled = CompiledPatriciaTrie.compile(reload(train(reverse)));
+            compiled.setThreshold(0.51);
+            CompiledPatriciaTrie pruned = CompiledPatriciaTrie.prune(compiled, 1.0);
+            assertTrue(pruned.getNodeCount() <= compiled.getNodeCount());
+            assertTrue(pruned.getTableSize() < compiled.getTableSize());
+            for (String word : probes()) {
+                assertEquals(word, compiled.classify(word), pruned.classify(word));
+            }
+            CompiledPatriciaTrie lossy = CompiledPatriciaTrie.prune(compiled, 0.3);
+            assertTrue(lossy.getNodeCount() <= pruned.getNodeCount());
+            assertEquals(compiled.classify(""), lossy.classify(""));
+        }
+    }
+
+    private CompactPatriciaTrie train(boolean reverse) {
+        CompactPatriciaTrie trie = new CompactPatriciaTrie();
+        trie.setReverse(reverse);
+        Random random = new Random(1L);
+        for (String word : WORDS) {
+            for (int i = 0; i < 3; i++) {
+                trie.train(word + "<", CLASSES[random.nextInt(CLASSES.length)], 1 + random.nextInt(5));
+            }
+        }
+        return trie;
+    }
+
+    private CompactPatriciaTrie reload(CompactPatriciaTrie trie) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        trie.save(out);
+        CompactPatriciaTrie loaded = new CompactPatriciaTrie();
+        loaded.load(new ByteArrayInputStream(out.toByteArray()));
+        return loaded;
+    }
+
+    private List<String> probes() {
+        List<String> probes = new ArrayList<String>();
+        for (String word : WORDS) {
+            probes.add(word + "<");
+            probes.add(word);
+            probes.add(word.substring(0, word.length() / 2));
+            probes.add(word + "e<");
+            probes.add("x" + word + "<");
+        }
+        probes.add("");
+        probes.add("<");
+        probes.add("unbekannt<");
+        return probes;
+    }
+}
@@ -0,0 +1,132 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Compares the trie engine {@link Decompounder} with the lexicon engine {@link LexiconDecompounder}
+ * in throughput, memory and agreement of splits.
+ * <p/>
+ * Usage: <code>DecompoundBenchmark [words [lexicon]]</code> with files of one word per line.
+ * Without words, the keys of the shipped backward tree are used. Without a lexicon,
+ * the lower case parts the trie engine finds for the words are used.
+ */
+public class DecompoundBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        long heap = usedHeap();
+        // the backward tree stands in for the forward tree, which is not shipped
+        PatriciaTrie kompvh = PatriciaTrie.load(DecompoundBenchmark.class.getResourceAsStream("/decompound/kompVHic.tree"));
+        PatriciaTrie grf = PatriciaTrie.load(DecompoundBenchmark.class.getResourceAsStream("/decompound/grfExt.tree"));
+        Decompounder trie = new Decompounder(kompvh, kompvh, grf, 0.51, Decompounder.DEFAULT_MAX_DEPTH,
+                Decompounder.DEFAULT_MAX_WORD_LENGTH, Decompounder.DEFAULT_MAX_PARTS);
+        long trieHeap = usedHeap() - heap;
+        List<String> words = args.length > 0 ? lines(new FileInputStream(args[0])) : treeWords();
+        List<String> lexemes;
+        if (args.length > 1) {
+            lexemes = lines(new FileInputStream(args[1]));
+        } else {
+            Set<String> parts = new TreeSet<String>();
+            for (String word : words) {
+                for (String part : trie.decompound(word)) {
+                    parts.add(part.toLowerCase());
+                }
+            }
+            lexemes = new ArrayList<String>(parts);
+        }
+        long t0 = System.nanoTime();
+        LexiconDecompounder lexicon = new LexiconDecompounder(lexemes, LexiconDecompounder.DEFAULT_LINKING_ELEMENTS,
+                LexiconDecompounder.DEFAULT_MIN_PART_LENGTH, Decompounder.DEFAULT_MAX_WORD_LENGTH, null);
+        long t1 = System.nanoTime();
+        System.out.println("words=" + words.size() + " lexemes=" + lexicon.size()
+                + " lexicon build=" + (t1 - t0) / 1000000L + "ms");
+        // the heap used by the tries is approximate, memory-mapped tries are not on the heap
+        System.out.println("memory trie=" + RamUsageEstimator.humanReadableUnits(trieHeap)
+                + " lexicon=" + RamUsageEstimator.humanReadableUnits(lexicon.ramBytesUsed()));
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("round " + round + " trie=" + throughput(trie, words) + " words/s"
+                    + " lexicon=" + throughput(lexicon, words) + " words/s");
+        }
+        int same = 0;
+        int split = 0;
+        for (String word : words) {
+            List<String> expected = trie.decompound(word);
+            List<String> actual = lexicon.decompound(word);
+            if (expected.equals(actual)) {
+                same++;
+            }
+            if (actual.size() > 1) {
+                split++;
+            }
+        }
+        System.out.println("agreement=" + (100L * same / Math.max(1, words.size())) + "%"
+                + " lexicon splits=" + split);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100L);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long throughput(Decompounder decompounder, List<String> words) {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        long n = 0;
+        long t0 = System.nanoTime();
+        for (String word : words) {
+            char[] chars = word.toCharArray();
+            decompounder.decompound(chars, 0, chars.length, parts);
+            n += parts.size();
+        }
+        long t1 = System.nanoTime();
+        if (n < 0) {
+            throw new IllegalStateException();
+        }
+        return words.size() * 1000000000L / Math.max(1L, t1 - t0);
+    }
+
+    private static List<String> treeWords() throws IOException, ClassNotFoundException {
+        CompactPatriciaTrie tree = new CompactPatriciaTrie();
+        tree.load(DecompoundBenchmark.class.getResourceAsStream("/decompound/kompVHic.tree"));
+        List<String> words = new ArrayList<String>();
+        for (Object key : tree.keySet()) {
+            String word = ((String) key).replace("<", "").replace("\u0004", "");
+            if (word.length() > 0) {
+                // the keys of the backward tree are reversed
+                words.add(new StringBuilder(word).reverse().toString());
+            }
+        }
+        return words;
+    }
+
+    private static List<String> lines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+}
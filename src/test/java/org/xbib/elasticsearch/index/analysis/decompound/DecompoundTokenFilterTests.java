@@ -10,6 +10,9 @@ import org.elasticsearch.common.inject.ModulesBuilder;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsModule;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.env.Environment;
 import org.elasticsearch.env.EnvironmentModule;
 import org.elasticsearch.index.Index;
@@ -69,6 +72,61 @@ public class DecompoundTokenFilterTests extends Assert {
         assertSimpleTSOutput(tokenFilter.create(tokenizer), expected);
     }
 
+    @Test
+    public void testStats() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        DecompoundTokenFilterFactory tokenFilter = (DecompoundTokenFilterFactory) analysisService.tokenFilter("decomp");
+        Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_4_9, new StringReader("Die Jahresfeier"));
+        TokenStream stream = tokenFilter.create(tokenizer);
+        stream.reset();
+        while (stream.incrementToken()) {
+            // consume
+        }
+        stream.close();
+        String json = stats(tokenFilter);
+        assertTrue(json, json.contains("\"tokens_in\":2"));
+        assertTrue(json, json.contains("\"generation\":0"));
+        assertTrue(json, json.contains("\"load_millis\":"));
+    }
+
+    @Test
+    public void testPrefilterStats() throws IOException {
+        AnalysisService analysisService = createAnalysisService();
+        DecompoundTokenFilterFactory tokenFilter = (DecompoundTokenFilterFactory) analysisService.tokenFilter("decomp_prefilter");
+        Tokenizer tokenizer = new StandardTokenizer(Version.LUCENE_4_9, new StringReader("Die Jahresfeier"));
+        TokenStream stream = tokenFilter.create(tokenizer);
+        stream.reset();
+        while (stream.incrementToken()) {
+            // consume
+        }
+        stream.close();
+        assertEquals(1L, tokenFilter.getPrefilter().accepted());
+        assertEquals(1L, tokenFilter.getPrefilter().skipped());
+        String json = stats(tokenFilter);
+        assertTrue(json, json.contains("\"prefilter\":{\"accepted\":1,\"skipped\":1}"));
+    }
+
+    @Test
+    public void testLazyStats() throws Exception {
+        AnalysisService analysisService = createAnalysisService();
+        DecompoundTokenFilterFactory tokenFilter = (DecompoundTokenFilterFactory) analysisService.tokenFilter("decomp_lazy");
+        // no filter is created, the stats report the decompounder once it is loaded
+        String json = stats(tokenFilter);
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!json.contains("\"generation\":0") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50L);
+            json = stats(tokenFilter);
+        }
+        assertTrue(json, json.contains("\"generation\":0"));
+        assertFalse(json, json.contains("\"resource_size_in_bytes\":0,"));
+    }
+
+    private static String stats(DecompoundTokenFilterFactory tokenFilter) throws IOException {
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        tokenFilter.getStats().toXContent(builder, ToXContent.EMPTY_PARAMS);
+        return builder.endObject().string();
+    }
+
     private AnalysisService createAnalysisService() {
         Settings settings = ImmutableSettings.settingsBuilder().loadFromClasspath("org/xbib/elasticsearch/index/analysis/decompound_analysis.json").build();
 
@@ -0,0 +1,307 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.util.CharArraySet;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.cache.CacheStats;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.TokenBudget;
+import org.xbib.elasticsearch.index.analysis.TokenFilterStats;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DecompounderTests extends Assert {
+
+    private final static String[] WORDS = {
+            "Jahresfeier", "Rechtsanwaltskanzleien", "Donaudampfschiff", "Ökosteuer", "gekostet",
+            "Haustürschloss", "Hausaufgaben", "Bundesverfassungsgericht", "a", ""
+    };
+
+    private static Decompounder decompounder;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        // the backward tree stands in for the forward tree, which is not shipped
+        decompounder = new Decompounder(
+                DecompounderTests.class.getResourceAsStream("/decompound/kompVHic.tree"),
+                DecompounderTests.class.getResourceAsStream("/decompound/kompVHic.tree"),
+                DecompounderTests.class.getResourceAsStream("/decompound/grfExt.tree"),
+                0.51);
+    }
+
+    @Test
+    public void testReusedBuffer() {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        for (int n = 0; n < 2; n++) {
+            for (String word : WORDS) {
+                char[] buffer = ("xx" + word + "yy").toCharArray();
+                decompounder.decompound(buffer, 2, word.length(), parts);
+                assertEquals(word, decompounder.decompound(word), parts.toList());
+            }
+        }
+    }
+
+    @Test
+    public void testCache() {
+        DecompoundCache cache = new DecompoundCache(decompounder, 100L, null, 4);
+        DecompoundBuffer parts = new DecompoundBuffer();
+        for (int n = 0; n < 2; n++) {
+            for (String word : WORDS) {
+                char[] buffer = ("xx" + word + "yy").toCharArray();
+                cache.decompound(buffer, 2, word.length(), parts);
+                assertEquals(word, decompounder.decompound(word), parts.toList());
+            }
+        }
+        // the second round is served from the cache
+        assertEquals(WORDS.length, cache.stats().missCount());
+        assertEquals(WORDS.length, cache.stats().hitCount());
+        assertEquals(WORDS.length, cache.size());
+        assertEquals(decompounder.decompound("Jahresfeier"), cache.decompound("Jahresfeier"));
+    }
+
+    @Test
+    public void testLimits() throws Exception {
+        PatriciaTrie kompvh = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/kompVHic.tree"));
+        PatriciaTrie grf = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/grfExt.tree"));
+        String word = "Bundesverfassungsgericht";
+        assertTrue(decompounder.decompound(word).size() > 2);
+        Decompounder shallow = new Decompounder(kompvh, kompvh, grf, 0.51, 1, 128, 32);
+        assertEquals(Arrays.asList("Bundesverfassungs", "gericht"), shallow.decompound(word));
+        Decompounder few = new Decompounder(kompvh, kompvh, grf, 0.51, 16, 128, 2);
+        assertTrue(few.decompound(word).size() <= 2);
+        Decompounder none = new Decompounder(kompvh, kompvh, grf, 0.51, 16, 8, 32);
+        assertEquals(Collections.singletonList(word), none.decompound(word));
+        // glued words are bounded by the maximum number of parts
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            sb.append("donaudampfschiff");
+        }
+        Decompounder bounded = new Decompounder(kompvh, kompvh, grf, 0.51, 16, 1024, 5);
+        assertTrue(bounded.decompound(sb.toString()).size() <= 5);
+    }
+
+    @Test
+    public void testTokenFilter() throws Exception {
+        String source = "Die Jahresfeier der Rechtsanwaltskanzleien";
+        TokenStream stream = new DecompoundTokenFilter(new WhitespaceTokenizer(Version.LUCENE_4_9,
+                new StringReader(source)), decompounder);
+        CharTermAttribute termAtt = stream.getAttribute(CharTermAttribute.class);
+        OffsetAttribute offsetAtt = stream.getAttribute(OffsetAttribute.class);
+        PositionIncrementAttribute posIncAtt = stream.getAttribute(PositionIncrementAttribute.class);
+        stream.reset();
+        for (String word : source.split(" ")) {
+            assertTrue(stream.incrementToken());
+            assertEquals(word, termAtt.toString());
+            assertEquals(1, posIncAtt.getPositionIncrement());
+            int start = source.indexOf(word);
+            List<String> parts = decompounder.decompound(word);
+            for (String part : parts) {
+                assertTrue(stream.incrementToken());
+                assertEquals(part, termAtt.toString());
+                assertEquals(0, posIncAtt.getPositionIncrement());
+                assertEquals(start, offsetAtt.startOffset());
+                assertEquals(start + part.length(), offsetAtt.endOffset());
+                start += part.length();
+            }
+        }
+        assertFalse(stream.incrementToken());
+        stream.end();
+        stream.close();
+    }
+
+    @Test
+    public void testPrefilter() throws Exception {
+        CharArraySet words = new CharArraySet(Version.LUCENE_4_9, Arrays.asList("Hausaufgaben"), false);
+        DecompoundPrefilter prefilter = new DecompoundPrefilter(4, true, words);
+        String source = "Die Jahresfeier 2014er Hausaufgaben Donaudampfschiff";
+        TokenStream stream = new DecompoundTokenFilter(new WhitespaceTokenizer(Version.LUCENE_4_9,
+                new StringReader(source)), new DecompounderHolder(decompounder, null), false, prefilter);
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        // rejected terms pass through without parts
+        int expected = 3 + 1 + decompounder.decompound("Jahresfeier").size()
+                + 1 + decompounder.decompound("Donaudampfschiff").size();
+        assertEquals(expected, count);
+        assertEquals(3, prefilter.skipped());
+        assertEquals(2, prefilter.accepted());
+        assertFalse(new DecompoundPrefilter(0, false, null).isEnabled());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        TokenBudget budget = new TokenBudget("test", "decompound", 2L);
+        String source = "Jahresfeier Donaudampfschiff Rechtsanwaltskanzleien Ökosteuer";
+        TokenStream stream = new DecompoundTokenFilter(new WhitespaceTokenizer(Version.LUCENE_4_9,
+                new StringReader(source)), new DecompounderHolder(decompounder, null), false, null, budget);
+        for (int n = 0; n < 2; n++) {
+            stream.reset();
+            int count = 0;
+            while (stream.incrementToken()) {
+                count++;
+            }
+            stream.end();
+            stream.close();
+            // terms beyond the budget pass through without parts
+            int expected = 4 + decompounder.decompound("Jahresfeier").size()
+                    + decompounder.decompound("Donaudampfschiff").size();
+            assertEquals(expected, count);
+            assertEquals(n + 1, budget.exceeded());
+            stream = new DecompoundTokenFilter(new WhitespaceTokenizer(Version.LUCENE_4_9,
+                    new StringReader(source)), new DecompounderHolder(decompounder, null), false, null, budget);
+        }
+        TokenFilterStats stats = new TokenFilterStats("test", "decompound", "decompound", null, budget);
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        String json = builder.endObject().string();
+        assertTrue(json, json.contains("\"tokens_in\":0,\"budget_exceeded\":2"));
+    }
+
+    @Test
+    public void testStats() throws Exception {
+        final DecompounderHolder holder = new DecompounderHolder(decompounder, null);
+        TokenFilterStats stats = new TokenFilterStats("test", "decompound", "decompound",
+                new TokenFilterStats.Resources() {
+                    @Override
+                    public long sizeInBytes() {
+                        return holder.current().decompounder().sizeInBytes();
+                    }
+
+                    @Override
+                    public CacheStats cacheStats() {
+                        return null;
+                    }
+
+                    @Override
+                    public XContentBuilder toXContent(XContentBuilder builder, Params params) {
+                        return builder;
+                    }
+                });
+        String source = "Die Jahresfeier der Rechtsanwaltskanzleien";
+        TokenStream stream = new DecompoundTokenFilter(new WhitespaceTokenizer(Version.LUCENE_4_9,
+                new StringReader(source)), holder, false, null, null, stats);
+        stream.reset();
+        int count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        stream.end();
+        stream.close();
+        assertEquals(4, stats.tokensIn());
+        assertEquals(count, stats.tokensOut());
+        int hits = 0;
+        for (String word : source.split(" ")) {
+            if (decompounder.decompound(word).size() > 1) {
+                hits++;
+            }
+        }
+        assertEquals(hits, stats.hits());
+        assertTrue(decompounder.sizeInBytes() > 0L);
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+        stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+        String json = builder.endObject().string();
+        assertTrue(json, json.contains("\"tokens_in\":4"));
+        assertTrue(json, json.contains("\"resource_size_in_bytes\":" + decompounder.sizeInBytes()));
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        String source = "# fixed parts\nJahresfeier Jahres feier\n\nDonaudampfschiff\nÖkosteuer Öko steuer\n";
+        DecompoundDictionary dictionary = DecompoundDictionary.load(new ByteArrayInputStream(source.getBytes("UTF-8")));
+        assertEquals(3, dictionary.size());
+        assertEquals(Arrays.asList("Jahres", "feier"), dictionary.decompound("Jahresfeier"));
+        assertEquals(Collections.singletonList("Donaudampfschiff"), dictionary.decompound("Donaudampfschiff"));
+        assertNull(dictionary.decompound("Jahres"));
+        assertNull(dictionary.decompound("Jahresfeiern"));
+        PatriciaTrie kompvh = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/kompVHic.tree"));
+        PatriciaTrie grf = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/grfExt.tree"));
+        Decompounder overridden = new Decompounder(kompvh, kompvh, grf, 0.51,
+                Decompounder.DEFAULT_MAX_DEPTH, Decompounder.DEFAULT_MAX_WORD_LENGTH, Decompounder.DEFAULT_MAX_PARTS,
+                dictionary);
+        DecompoundBuffer parts = new DecompoundBuffer();
+        char[] buffer = "xxÖkosteueryy".toCharArray();
+        overridden.decompound(buffer, 2, 9, parts);
+        assertEquals(Arrays.asList("Öko", "steuer"), parts.toList());
+        assertEquals(Collections.singletonList("Donaudampfschiff"), overridden.decompound("Donaudampfschiff"));
+        for (String word : WORDS) {
+            if (dictionary.decompound(word) == null) {
+                assertEquals(word, decompounder.decompound(word), overridden.decompound(word));
+            }
+        }
+    }
+
+    @Test
+    public void testPrecompute() throws Exception {
+        List<String> terms = DecompoundPrecomputer.readTerms(new ByteArrayInputStream(
+                "Jahresfeier\nHausaufgaben\n\nJahresfeier\ngekostet\nBundesverfassungsgericht\n".getBytes("UTF-8")));
+        assertEquals(Arrays.asList("Bundesverfassungsgericht", "Hausaufgaben", "Jahresfeier", "gekostet"), terms);
+        DecompoundDictionary precomputed = new DecompoundPrecomputer(decompounder)
+                .setParallelism(2)
+                .precompute(terms);
+        assertEquals(terms.size(), precomputed.size());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        precomputed.write(out);
+        DecompoundDictionary read = DecompoundDictionary.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(terms.size(), read.size());
+        for (String term : terms) {
+            assertEquals(term, decompounder.decompound(term), read.decompound(term));
+        }
+        assertNull(read.decompound("Donaudampfschiff"));
+        out.reset();
+        new DecompoundDictionary(Collections.<String, List<String>>emptyMap()).write(out);
+        DecompoundDictionary empty = DecompoundDictionary.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0, empty.size());
+        assertNull(empty.decompound("Jahresfeier"));
+    }
+
+    @Test
+    public void testSwapKeepsStreamsInFlight() throws Exception {
+        PatriciaTrie kompvh = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/kompVHic.tree"));
+        PatriciaTrie grf = PatriciaTrie.load(getClass().getResourceAsStream("/decompound/grfExt.tree"));
+        // does not decompound at all
+        Decompounder none = new Decompounder(kompvh, kompvh, grf, 0.51, 16, 1, 32);
+        DecompounderHolder holder = new DecompounderHolder(decompounder, null);
+        Tokenizer tokenizer = new WhitespaceTokenizer(Version.LUCENE_4_9, new StringReader("Jahresfeier Jahresfeier"));
+        TokenStream stream = new DecompoundTokenFilter(tokenizer, holder, false);
+        stream.reset();
+        assertTrue(stream.incrementToken());
+        holder.swap(none, null, 0L);
+        int count = 1;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        // the stream in flight keeps the decompounder it was reset with
+        assertEquals(2 * (1 + decompounder.decompound("Jahresfeier").size()), count);
+        stream.end();
+        stream.close();
+        // a reused stream takes the new decompounder
+        tokenizer.setReader(new StringReader("Jahresfeier"));
+        stream.reset();
+        count = 0;
+        while (stream.incrementToken()) {
+            count++;
+        }
+        assertEquals(2, count);
+        stream.end();
+        stream.close();
+    }
+}
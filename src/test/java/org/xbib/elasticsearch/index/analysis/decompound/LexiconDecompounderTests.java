@@ -0,0 +1,73 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class LexiconDecompounderTests extends Assert {
+
+    private final static String[] LEXICON = {
+            "haus", "tür", "schloss", "jahr", "feier", "donau", "dampf", "schiff", "öko", "steuer",
+            "aufgabe", "aufgaben", "bund", "verfassung", "gericht", "recht", "anwalt", "kanzlei",
+            "kanzleien", "stau", "staub", "becken", "ecken", "au"
+    };
+
+    private static LexiconDecompounder decompounder;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        decompounder = new LexiconDecompounder(Arrays.asList(LEXICON), LexiconDecompounder.DEFAULT_LINKING_ELEMENTS,
+                LexiconDecompounder.DEFAULT_MIN_PART_LENGTH, Decompounder.DEFAULT_MAX_WORD_LENGTH, null);
+    }
+
+    @Test
+    public void testSplits() {
+        assertEquals(LEXICON.length, decompounder.size());
+        assertEquals(Arrays.asList("Haus", "tür", "schloss"), decompounder.decompound("Haustürschloss"));
+        assertEquals(Arrays.asList("Jahres", "feier"), decompounder.decompound("Jahresfeier"));
+        assertEquals(Arrays.asList("Bundes", "verfassungs", "gericht"), decompounder.decompound("Bundesverfassungsgericht"));
+        assertEquals(Arrays.asList("Rechts", "anwalts", "kanzleien"), decompounder.decompound("Rechtsanwaltskanzleien"));
+        assertEquals(Arrays.asList("Donau", "dampf", "schiff"), decompounder.decompound("Donaudampfschiff"));
+        assertEquals(Arrays.asList("Haus", "aufgaben"), decompounder.decompound("Hausaufgaben"));
+        assertEquals(Arrays.asList("Öko", "steuer"), decompounder.decompound("Ökosteuer"));
+        // of two splits with the same number of parts, the one with the longest last part wins
+        assertEquals(Arrays.asList("Stau", "becken"), decompounder.decompound("Staubecken"));
+    }
+
+    @Test
+    public void testKept() {
+        for (String word : new String[]{"Haus", "Xylophon", "Hausx", "Haust", "Hausaus", "a", ""}) {
+            assertEquals(word, Collections.singletonList(word), decompounder.decompound(word));
+        }
+        assertEquals("Haustür", decompounder.reduceToBaseForm("Haustür"));
+    }
+
+    @Test
+    public void testLimitsAndDictionary() throws Exception {
+        LexiconDecompounder shortWords = new LexiconDecompounder(Arrays.asList(LEXICON),
+                LexiconDecompounder.DEFAULT_LINKING_ELEMENTS, LexiconDecompounder.DEFAULT_MIN_PART_LENGTH, 8, null);
+        assertEquals(Arrays.asList("Haus", "tür"), shortWords.decompound("Haustür"));
+        assertEquals(Collections.singletonList("Jahresfeier"), shortWords.decompound("Jahresfeier"));
+        DecompoundDictionary dictionary = DecompoundDictionary.load(
+                new ByteArrayInputStream("Staubecken Staub ecken\n".getBytes("UTF-8")));
+        LexiconDecompounder overridden = new LexiconDecompounder(Arrays.asList(LEXICON),
+                LexiconDecompounder.DEFAULT_LINKING_ELEMENTS, 2, Decompounder.DEFAULT_MAX_WORD_LENGTH, dictionary);
+        assertEquals(Arrays.asList("Staub", "ecken"), overridden.decompound("Staubecken"));
+        // parts of two characters
+        assertEquals(Arrays.asList("Au", "tür"), overridden.decompound("Autür"));
+    }
+
+    @Test
+    public void testReusedBuffer() {
+        DecompoundBuffer parts = new DecompoundBuffer();
+        for (String word : new String[]{"Bundesverfassungsgericht", "Haus", "Haustürschloss", "Jahresfeier"}) {
+            char[] buffer = ("xx" + word + "yy").toCharArray();
+            decompounder.decompound(buffer, 2, word.length(), parts);
+            assertEquals(word, decompounder.decompound(word), parts.toList());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.xbib.elasticsearch.index.analysis.decompound;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class PatriciaTrieTrainerTests extends Assert {
+
+    private final static String[] WORDS = {
+            "jahresfeier", "jahr", "feier", "rechtsanwalt", "rechtsanwaltskanzlei", "kanzlei",
+            "donaudampfschiff", "dampfschiff", "schiff", "dampf", "donau", "steuer", "ökosteuer",
+            "haus", "haustür", "hausaufgabe", "aufgabe", "tür", "türschloss", "schloss", "Haus", "Dampf"
+    };
+
+    private final static String[] CLASSES = {"4", "5s", "3", "6es", "2"};
+
+    @Test
+    public void testClassifiesLikeCompactTrie() throws Exception {
+        for (boolean reverse : new boolean[]{false, true}) {
+            for (boolean ignorecase : new boolean[]{false, true}) {
+                for (double threshold : new double[]{0.0, 0.51, 0.75}) {
+                    CompactPatriciaTrie trie = new CompactPatriciaTrie();
+                    trie.setReverse(reverse);
+                    trie.setIgnoreCase(ignorecase);
+                    trie.setThreshold(threshold);
+                    PatriciaTrieTrainer trainer = new PatriciaTrieTrainer()
+                            .setReverse(reverse)
+                            .setIgnoreCase(ignorecase)
+                            .setThreshold(threshold)
+                            .setParallelism(2);
+                    Random random = new Random(1L);
+                    for (String word : WORDS) {
+                        for (int i = 0; i < 3; i++) {
+                            String cls = CLASSES[random.nextInt(CLASSES.length)];
+                            int nr = 1 + random.nextInt(5);
+                            trie.train(word + "<", cls, nr);
+                            trainer.train(word + "<", cls, nr);
+                        }
+                    }
+                    trie.prune();
+                    CompiledPatriciaTrie expected = CompiledPatriciaTrie.compile(trie);
+                    CompiledPatriciaTrie trained = trainer.compile();
+                    String message = reverse + " " + ignorecase + " " + threshold;
+                    assertEquals(message, expected.getNodeCount(), trained.getNodeCount());
+                    assertEquals(message, expected.getEdgeCount(), trained.getEdgeCount());
+                    for (String word : probes()) {
+                        assertEquals(message + " " + word, expected.classify(word), trained.classify(word));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTrainFromStream() throws Exception {
+        String input = "haus<\t4\nhaustür<\t4\t3\n\ntür<\t3\t2\nschloss<\t5s\n";
+        PatriciaTrieTrainer trainer = new PatriciaTrieTrainer().setPrune(false);
+        trainer.train(new ByteArrayInputStream(input.getBytes("UTF-8")));
+        assertEquals(4, trainer.getWordCount());
+        CompiledPatriciaTrie compiled = trainer.compile();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        compiled.write(out);
+        CompiledPatriciaTrie read = CompiledPatriciaTrie.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("4", read.classify("haustür<"));
+        assertEquals("3", read.classify("tür<"));
+        assertEquals("5s", read.classify("schloss<"));
+    }
+
+    private List<String> probes() {
+        List<String> probes = new ArrayList<String>();
+        for (String word : WORDS) {
+            probes.add(word + "<");
+            probes.add(word);
+            probes.add(word.substring(0, word.length() / 2));
+            probes.add(word + "e<");
+            probes.add("x" + word + "<");
+            probes.add(word.toUpperCase() + "<");
+        }
+        probes.add("");
+        probes.add("<");
+        probes.add("unbekannt<");
+        return probes;
+    }
+}
@@ -0,0 +1,68 @@
+package org.xbib.elasticsearch.indices.analysis.baseform;
+
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.Index;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.baseform.Dictionary;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+public class BaseformDictionaryServiceTests extends Assert {
+
+    private final Environment env = new Environment(ImmutableSettings.EMPTY);
+
+    private ImmutableSettings.Builder settings() {
+        return ImmutableSettings.settingsBuilder().put("language", "en");
+    }
+
+    @Test
+    public void testSharedAcrossIndices() throws Exception {
+        BaseformDictionaryService service = new BaseformDictionaryService(ImmutableSettings.EMPTY);
+        Index one = new Index("one");
+        Index two = new Index("two");
+        Dictionary d1 = service.acquire(one, env, settings().build());
+        Dictionary d2 = service.acquire(two, env, settings().build());
+        Dictionary d3 = service.acquire(two, env, settings().put("dictionary", "/baseform/en-lemma-utf8.txt").build());
+        assertSame(d1, d2);
+        assertSame(d1, d3);
+        assertEquals(1, service.size());
+        assertEquals("child", d1.lookup("children"));
+        service.release(one);
+        assertEquals(1, service.size());
+        service.release(two);
+        assertEquals(0, service.size());
+    }
+
+    @Test
+    public void testChangedResource() throws Exception {
+        BaseformDictionaryService service = new BaseformDictionaryService(ImmutableSettings.EMPTY);
+        Index index = new Index("test");
+        File file = File.createTempFile("lemma", ".txt");
+        file.deleteOnExit();
+        write(file, "children\tchild\n");
+        String path = file.getAbsolutePath();
+        Dictionary d1 = service.acquire(index, env, settings().put("dictionary", path).build());
+        assertSame(d1, service.acquire(index, env, settings().put("dictionary", path).build()));
+        // the checksum of the content is part of the key
+        write(file, "children\tchild\nwent\tgo\n");
+        Dictionary d2 = service.acquire(index, env, settings().put("dictionary", path).build());
+        assertNotSame(d1, d2);
+        assertEquals("go", d2.lookup("went"));
+        assertEquals(2, service.size());
+        service.release(index);
+        assertEquals(0, service.size());
+    }
+
+    private static void write(File file, String content) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
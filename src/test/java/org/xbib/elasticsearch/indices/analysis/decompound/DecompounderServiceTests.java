@@ -0,0 +1,275 @@
+package org.xbib.elasticsearch.indices.analysis.decompound;
+
+import org.elasticsearch.ElasticsearchIllegalArgumentException;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.FailedToResolveConfigException;
+import org.elasticsearch.index.Index;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xbib.elasticsearch.index.analysis.decompound.CompiledPatriciaTrie;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompoundCache;
+import org.xbib.elasticsearch.index.analysis.decompound.Decompounder;
+import org.xbib.elasticsearch.index.analysis.decompound.DecompounderHolder;
+import org.xbib.elasticsearch.index.analysis.decompound.LexiconDecompounder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+
+public class DecompounderServiceTests extends Assert {
+
+    private final Environment env = new Environment(ImmutableSettings.EMPTY);
+
+    private ImmutableSettings.Builder settings() {
+        // the backward tree stands in for the forward tree, which is not shipped
+        return ImmutableSettings.settingsBuilder().put("forward", "/decompound/kompVHic.tree");
+    }
+
+    @Test
+    public void testSharedAcrossIndices() throws Exception {
+        DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+        Index one = new Index("one");
+        Index two = new Index("two");
+        DecompounderHolder d1 = service.acquire(one, env, settings().build());
+        DecompounderHolder d2 = service.acquire(two, env, settings().build());
+        DecompounderHolder d3 = service.acquire(two, env, settings().put("threshold", 0.51).build());
+        assertSame(d1, d2);
+        assertSame(d1, d3);
+        assertEquals(1, service.size());
+        DecompounderHolder d4 = service.acquire(two, env, settings().put("threshold", 0.6).build());
+        assertNotSame(d1, d4);
+        assertEquals(2, service.size());
+        DecompounderHolder d5 = service.acquire(two, env, settings().put("max_parts", 4).build());
+        assertNotSame(d1, d5);
+        assertEquals(3, service.size());
+        service.release(one);
+        assertEquals(3, service.size());
+        service.release(two);
+        assertEquals(0, service.size());
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+        Index index = new Index("test");
+        Future<DecompounderHolder> lazy = service.acquireLazily(index, env, settings().build());
+        DecompounderHolder holder = lazy.get();
+        assertSame(holder, service.acquire(index, env, settings().build()));
+        assertEquals(1, service.size());
+        try {
+            service.acquireLazily(index, env, settings().put("reduce", "/decompound/missing.tree").build());
+            fail();
+        } catch (FailedToResolveConfigException e) {
+            // resolved before loading
+        }
+        assertEquals(1, service.size());
+        service.release(index);
+        service.close();
+    }
+
+    @Test
+    public void testReleaseBeforeLazyLoad() throws Exception {
+        DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+        Index index = new Index("test");
+        Future<DecompounderHolder> lazy = service.acquireLazily(index, env, settings().build());
+        // the index is closed while its decompounder is still loading
+        service.release(index);
+        if (lazy.isCancelled()) {
+            // released before the acquire ran
+            try {
+                lazy.get();
+                fail();
+            } catch (CancellationException e) {
+                assertEquals(0, service.size());
+            }
+        } else {
+            // the acquire ran before the release, which released the holder it acquired
+            assertNotNull(lazy.get());
+        }
+        assertTrue(lazy.isDone());
+        assertEquals(0, service.size());
+        // the decompounder is loaded again for a new index
+        service.acquire(index, env, settings().build());
+        assertEquals(1, service.size());
+        service.release(index);
+        assertEquals(0, service.size());
+        service.close();
+    }
+
+    @Test
+    public void testFailedLoad() throws Exception {
+        File tree = File.createTempFile("decompound", ".tree");
+        try {
+            OutputStream out = new FileOutputStream(tree);
+            try {
+                out.write("not a tree".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+            Index index = new Index("test");
+            try {
+                service.acquire(index, env, settings().put("reduce", tree.getAbsolutePath()).build());
+                fail();
+            } catch (IOException e) {
+                // not a tree
+            }
+            // a failed load is not kept, other decompounders still load
+            assertEquals(0, service.size());
+            service.acquire(index, env, settings().build());
+            assertEquals(1, service.size());
+            service.release(index);
+            assertEquals(0, service.size());
+            service.close();
+        } finally {
+            tree.delete();
+        }
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+        Index index = new Index("test");
+        DecompounderHolder holder = service.acquire(index, env, settings().build());
+        DecompounderHolder pruned = service.acquire(index, env, settings().put("prune", 1.0).build());
+        assertNotSame(holder, pruned);
+        for (String word : new String[]{"Jahresfeier", "Rechtsanwaltskanzleien", "Donaudampfschiff", "Ökosteuer"}) {
+            assertEquals(holder.current().decompounder().decompound(word), pruned.current().decompounder().decompound(word));
+        }
+        try {
+            service.acquire(index, env, settings().put("prune", 2.0).build());
+            fail();
+        } catch (ElasticsearchIllegalArgumentException e) {
+            // out of range
+        }
+        service.release(index);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        DecompounderService service = new DecompounderService(ImmutableSettings.settingsBuilder()
+                .put("decompound.cache.max_size", 2).build());
+        Index index = new Index("test");
+        DecompounderHolder holder = service.acquire(index, env, settings().build());
+        Decompounder decompounder = holder.current().decompounder();
+        // created by the first filter using it
+        assertNull(holder.current().cache());
+        DecompoundCache cache = holder.current().useCache();
+        assertSame(cache, holder.current().cache());
+        String[] words = {"Jahresfeier", "Rechtsanwaltskanzleien", "Jahresfeier", "Donaudampfschiff", "Ökosteuer"};
+        for (String word : words) {
+            assertEquals(decompounder.decompound(word), cache.decompound(word));
+        }
+        assertEquals(1L, service.cacheStats().hitCount());
+        assertEquals(4L, service.cacheStats().missCount());
+        assertEquals(2L, service.cacheStats().evictionCount());
+        assertTrue(cache.size() <= 2);
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        File dir = File.createTempFile("decompound", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File tree = new File(dir, "grfExt.bin");
+        write(tree);
+        Settings settings = ImmutableSettings.settingsBuilder()
+                .put("forward", tree.getAbsolutePath())
+                .put("backward", tree.getAbsolutePath())
+                .put("reduce", tree.getAbsolutePath())
+                .build();
+        DecompounderService service = new DecompounderService(ImmutableSettings.settingsBuilder()
+                .put("decompound.reload.interval", "100ms").build());
+        service.start();
+        try {
+            DecompounderHolder holder = service.acquire(new Index("test"), env, settings);
+            DecompounderHolder.Generation first = holder.current();
+            assertEquals(0L, first.generation());
+            // replace the tree by renaming a new file over it
+            File next = new File(dir, "grfExt.bin.new");
+            write(next);
+            assertTrue(next.setLastModified(tree.lastModified() + 10000L));
+            assertTrue(next.renameTo(tree));
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (holder.current() == first && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50L);
+            }
+            DecompounderHolder.Generation second = holder.current();
+            assertEquals(1L, second.generation());
+            assertNotSame(first.decompounder(), second.decompounder());
+            assertNotSame(first.useCache(), second.useCache());
+            assertTrue(second.loadMillis() >= 0L);
+            assertEquals(first.decompounder().decompound("Jahresfeier"), second.decompounder().decompound("Jahresfeier"));
+            service.reload();
+            assertEquals(2L, holder.current().generation());
+        } finally {
+            service.close();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testLexiconEngine() throws Exception {
+        File lexicon = File.createTempFile("lexicon", ".txt");
+        try {
+            OutputStream out = new FileOutputStream(lexicon);
+            try {
+                out.write("# word forms\njahr\nfeier\nhaus\ntür\n".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            DecompounderService service = new DecompounderService(ImmutableSettings.EMPTY);
+            Index index = new Index("test");
+            DecompounderHolder holder = service.acquire(index, env, ImmutableSettings.settingsBuilder()
+                    .put("engine", "lexicon")
+                    .put("lexicon", lexicon.getAbsolutePath())
+                    .build());
+            Decompounder decompounder = holder.current().decompounder();
+            assertTrue(decompounder instanceof LexiconDecompounder);
+            assertEquals(4, ((LexiconDecompounder) decompounder).size());
+            assertEquals(Arrays.asList("Jahres", "feier"), decompounder.decompound("Jahresfeier"));
+            DecompounderHolder other = service.acquire(index, env, ImmutableSettings.settingsBuilder()
+                    .put("engine", "lexicon")
+                    .put("lexicon", lexicon.getAbsolutePath())
+                    .put("min_part_length", 4)
+                    .build());
+            assertNotSame(holder, other);
+            assertEquals(Arrays.asList("Jahres", "feier"), other.current().decompounder().decompound("Jahresfeier"));
+            assertEquals(Arrays.asList("Haustür"), other.current().decompounder().decompound("Haustür"));
+            service.release(index);
+            assertEquals(0, service.size());
+            try {
+                service.acquire(index, env, ImmutableSettings.settingsBuilder().put("engine", "lexicon").build());
+                fail();
+            } catch (ElasticsearchIllegalArgumentException e) {
+                // a lexicon is required
+            }
+            try {
+                service.acquire(index, env, settings().put("engine", "unknown").build());
+                fail();
+            } catch (ElasticsearchIllegalArgumentException e) {
+                // unknown engine
+            }
+        } finally {
+            lexicon.delete();
+        }
+    }
+
+    private void write(File file) throws Exception {
+        CompiledPatriciaTrie trie = CompiledPatriciaTrie.load(getClass().getResourceAsStream("/decompound/grfExt.tree"));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            trie.write(out);
+        } finally {
+            out.close();
+        }
+    }
+}